@@ -0,0 +1,24 @@
+package com.serenitydojo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BenchmarkMain {
+
+    // run the JMH benchmarks, writing the results as JSON so they can be diffed between releases
+    // any normal JMH option can be passed, e.g. -t 8 for 8 threads or -p catalogSize=6 to fix a parameter
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        // default to JSON results in jmh-results.json unless a result format or file was asked for
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add("jmh-results.json");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,59 @@
+package com.serenitydojo.benchmarks;
+
+import com.serenitydojo.CartStore;
+import com.serenitydojo.Catalog;
+import com.serenitydojo.Fruit;
+import com.serenitydojo.OperationStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// checkout requests against a shared cart store - run it with -t 1, -t 2, -t 4 ... -t max to see how throughput
+// scales with the number of cores
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartStoreBenchmark {
+
+    // number of open carts the requests are spread over
+    @Param({"1000", "1000000"})
+    public int carts;
+
+    private CartStore store;
+    private Catalog catalog;
+
+    @Setup
+    public void setUp() throws Exception {
+        catalog = Fixtures.catalogOf(Fruit.values().length, 1_000);
+        store = new CartStore();
+        for (long cartId = 0; cartId < carts; cartId++) {
+            store.withCart(cartId, cart -> cart.tryAddItem(Fruit.APPLE, 1, catalog));
+        }
+    }
+
+    // add a kilo to a random cart and price it, as a checkout page would
+    @Benchmark
+    public long addItemAndPrice() throws Exception {
+        long cartId = ThreadLocalRandom.current().nextInt(carts);
+        return store.withCart(cartId, cart -> {
+            cart.tryAddItem(Fruit.PEAR, 1, catalog);
+            long total = cart.getTotalPriceInCents(catalog);
+            cart.tryRemoveItem(Fruit.PEAR, 1);
+            return total;
+        });
+    }
+
+    @Benchmark
+    public OperationStatus addItem() throws Exception {
+        long cartId = ThreadLocalRandom.current().nextInt(carts);
+        return store.withCart(cartId, cart -> {
+            OperationStatus status = cart.tryAddItem(Fruit.BANANA, 1, catalog);
+            cart.tryRemoveItem(Fruit.BANANA, 1);
+            return status;
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package com.serenitydojo.benchmarks;
+
+import com.serenitydojo.Catalog;
+import com.serenitydojo.CatalogItem;
+import com.serenitydojo.Fruit;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    // number of fruits with a price and stock in the catalog
+    @Param({"1", "4", "6"})
+    public int catalogSize;
+
+    // kilos of stock per fruit
+    @Param({"5", "2000000"})
+    public long stockPerFruit;
+
+    private Catalog catalog;
+
+    @Setup
+    public void setUp() {
+        catalog = Fixtures.catalogOf(catalogSize, stockPerFruit);
+    }
+
+    @Benchmark
+    public List<CatalogItem> getAvailableFruits() {
+        return catalog.getAvailableFruits();
+    }
+
+    @Benchmark
+    public double getPriceOf() {
+        return catalog.getPriceOf(Fruit.APPLE);
+    }
+
+    @Benchmark
+    public boolean containsFruit() {
+        return catalog.containsFruit(Fruit.PEAR);
+    }
+
+    @Benchmark
+    public void updatePriceOf() {
+        catalog.updatePriceOf(Fruit.APPLE, 4.25);
+    }
+}
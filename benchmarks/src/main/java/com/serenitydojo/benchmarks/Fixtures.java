@@ -0,0 +1,29 @@
+package com.serenitydojo.benchmarks;
+
+import com.serenitydojo.Catalog;
+import com.serenitydojo.Fruit;
+
+import java.util.Arrays;
+
+// helpers to build catalogs and carts of a given size for the benchmarks
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    // a catalog with a price and stock for the first catalogSize fruits
+    static Catalog catalogOf(int catalogSize, long stockPerFruit) {
+        Catalog catalog = new Catalog();
+        Fruit[] fruits = Fruit.values();
+        for (int i = 0; i < Math.min(catalogSize, fruits.length); i++) {
+            catalog.updatePriceOf(fruits[i], 4.00 + i * 0.25);
+            catalog.addStock(fruits[i], stockPerFruit);
+        }
+        return catalog;
+    }
+
+    // the fruits that make up a cart of cartSize lines
+    static Fruit[] cartLines(int cartSize) {
+        return Arrays.copyOf(Fruit.values(), Math.min(cartSize, Fruit.values().length));
+    }
+}
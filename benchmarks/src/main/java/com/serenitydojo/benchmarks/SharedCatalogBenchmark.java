@@ -0,0 +1,72 @@
+package com.serenitydojo.benchmarks;
+
+import com.serenitydojo.Catalog;
+import com.serenitydojo.Fruit;
+import com.serenitydojo.ShoppingCart;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// checkout threads pricing carts against one shared catalog while a pricing job keeps updating it
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedCatalogBenchmark {
+
+    @State(Scope.Group)
+    public static class SharedCatalog {
+        @Param({"4", "6"})
+        public int catalogSize;
+
+        Catalog catalog;
+
+        @Setup
+        public void setUp() {
+            catalog = Fixtures.catalogOf(catalogSize, 1_000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CheckoutCart {
+        ShoppingCart cart;
+
+        @Setup
+        public void setUp(SharedCatalog shared) {
+            cart = new ShoppingCart();
+            for (Fruit fruit : Fixtures.cartLines(shared.catalogSize)) {
+                cart.addItem(fruit, 2, shared.catalog);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PriceFeed {
+        double price = 4.00;
+    }
+
+    // seven readers to one writer
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(7)
+    public double checkout(SharedCatalog shared, CheckoutCart checkout) {
+        return checkout.cart.getTotalPrice(shared.catalog);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void reprice(SharedCatalog shared, PriceFeed feed) {
+        feed.price = feed.price >= 6.00 ? 4.00 : feed.price + 0.25;
+        shared.catalog.updatePriceOf(Fruit.APPLE, feed.price);
+    }
+
+    // the same checkout with no writer, to compare against
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(8)
+    public double checkoutOnly(SharedCatalog shared, CheckoutCart checkout) {
+        return checkout.cart.getTotalPrice(shared.catalog);
+    }
+}
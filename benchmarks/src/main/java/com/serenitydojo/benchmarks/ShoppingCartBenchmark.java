@@ -0,0 +1,55 @@
+package com.serenitydojo.benchmarks;
+
+import com.serenitydojo.Catalog;
+import com.serenitydojo.Fruit;
+import com.serenitydojo.ShoppingCart;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// each thread builds its own catalog and cart, so nothing is shared between threads
+// see SharedCatalogBenchmark for carts priced against one catalog shared by every thread
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartBenchmark {
+
+    // number of different fruits in the cart
+    @Param({"1", "3", "6"})
+    public int cartSize;
+
+    // kilos of each fruit in the cart
+    @Param({"1", "10"})
+    public int quantityPerLine;
+
+    private Catalog catalog;
+    private ShoppingCart cart;
+    private Fruit[] lines;
+
+    @Setup
+    public void setUp() {
+        catalog = Fixtures.catalogOf(Fruit.values().length, 1_000);
+        lines = Fixtures.cartLines(cartSize);
+        cart = new ShoppingCart();
+        for (Fruit fruit : lines) {
+            cart.addItem(fruit, quantityPerLine, catalog);
+        }
+    }
+
+    @Benchmark
+    public double getTotalPrice() {
+        return cart.getTotalPrice(catalog);
+    }
+
+    // add and then remove one kilo so the cart stays the same size between invocations
+    @Benchmark
+    public int addItemThenRemoveItem() throws Exception {
+        Fruit fruit = lines[0];
+        cart.addItem(fruit, 1, catalog);
+        cart.removeItem(fruit, 1);
+        return cart.getItemQuantity(fruit);
+    }
+}
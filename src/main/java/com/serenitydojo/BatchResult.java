@@ -0,0 +1,41 @@
+package com.serenitydojo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class BatchResult {
+    // one status per line of the batch, in the same order as the lines
+    private final List<OperationStatus> lineStatuses;
+    private final boolean applied;
+
+    BatchResult(OperationStatus[] lineStatuses, boolean applied) {
+        this.lineStatuses = Collections.unmodifiableList(Arrays.asList(lineStatuses));
+        this.applied = applied;
+    }
+
+    // true if every line was valid and the whole batch was applied to the cart
+    // if any line failed, none of the lines were applied
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public List<OperationStatus> getLineStatuses() {
+        return lineStatuses;
+    }
+
+    public OperationStatus getStatus(int line) {
+        return lineStatuses.get(line);
+    }
+
+    // method to count how many lines failed validation
+    public int getFailureCount() {
+        int failures = 0;
+        for (OperationStatus status : lineStatuses) {
+            if (!status.isSuccess()) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,40 @@
+package com.serenitydojo;
+
+import java.util.Objects;
+
+public final class CartOperation {
+    // the two kinds of change that can be made to a cart
+    public enum Type { ADD, REMOVE }
+
+    private final Type type;
+    private final Fruit fruit;
+    private final int quantity;
+
+    private CartOperation(Type type, Fruit fruit, int quantity) {
+        this.type = Objects.requireNonNull(type);
+        this.fruit = Objects.requireNonNull(fruit);
+        this.quantity = quantity;
+    }
+
+    // create a line that adds a quantity of fruit to the cart
+    public static CartOperation add(Fruit fruit, int quantity) {
+        return new CartOperation(Type.ADD, fruit, quantity);
+    }
+
+    // create a line that removes a quantity of fruit from the cart
+    public static CartOperation remove(Fruit fruit, int quantity) {
+        return new CartOperation(Type.REMOVE, fruit, quantity);
+    }
+
+    // getter methods
+    public Type getType() { return type; }
+
+    public Fruit getFruit() { return fruit; }
+
+    public int getQuantity() { return quantity; }
+
+    @Override
+    public String toString() {
+        return type + " " + fruit + ": " + quantity + " kg";
+    }
+}
@@ -0,0 +1,106 @@
+package com.serenitydojo;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+// applies a batch of price changes to a catalog and brings the totals of a large number of carts up to date in
+// parallel, e.g. at the start of a flash sale
+// carts that hold none of the changed fruits are found with one bitmask test and skipped, and their running totals
+// are carried over to the new prices without being worked out again
+// a plain collection of carts must not be changed by anything else while it is being repriced - carts kept in a
+// CartStore can be repriced while they are in use, as each one is repriced under its lock in the store
+public class CartRepricer {
+
+    private final Catalog catalog;
+    private final ForkJoinPool pool;
+
+    // reprice using the common fork-join pool
+    public CartRepricer(Catalog catalog) {
+        this(catalog, ForkJoinPool.commonPool());
+    }
+
+    public CartRepricer(Catalog catalog, ForkJoinPool pool) {
+        this.catalog = catalog;
+        this.pool = pool;
+    }
+
+    // method to update the given prices (in dollars) and reprice the carts against them
+    public RepricingResult reprice(Map<Fruit, Double> priceChanges, Collection<ShoppingCart> carts) {
+        long start = System.nanoTime();
+        long changedFruits = fruitsIn(priceChanges);
+        if (changedFruits == 0) {
+            // nothing changed, so no new version is published and every cart's total is already as good as it gets
+            return new RepricingResult(0, carts.size(), catalog.getPriceVersion(), System.nanoTime() - start);
+        }
+        long newVersion = publish(priceChanges, changedFruits);
+        long repriced = inPool(() -> carts.parallelStream()
+                .filter(cart -> reprice(cart, changedFruits, newVersion))
+                .count());
+        return new RepricingResult(repriced, carts.size() - repriced, newVersion, System.nanoTime() - start);
+    }
+
+    // method to update the given prices and reprice the carts held in a store
+    // each cart is repriced while holding its lock in the store, so requests using the cart wait until it is done
+    // carts packed off the heap are skipped - they are priced from scratch when they are unpacked anyway
+    public RepricingResult reprice(Map<Fruit, Double> priceChanges, CartStore store) {
+        long start = System.nanoTime();
+        long changedFruits = fruitsIn(priceChanges);
+        if (changedFruits == 0) {
+            return new RepricingResult(0, store.size(), catalog.getPriceVersion(), System.nanoTime() - start);
+        }
+        long newVersion = publish(priceChanges, changedFruits);
+        LongAdder repriced = new LongAdder();
+        long seen = inPool(() -> store.forEachUnpackedCart(cart -> {
+            if (reprice(cart, changedFruits, newVersion)) {
+                repriced.increment();
+            }
+        }));
+        return new RepricingResult(repriced.sum(), seen - repriced.sum(), newVersion, System.nanoTime() - start);
+    }
+
+    private static long fruitsIn(Map<Fruit, Double> priceChanges) {
+        long fruits = 0;
+        for (Fruit fruit : priceChanges.keySet()) {
+            fruits |= fruit.bit();
+        }
+        return fruits;
+    }
+
+    // publish every change as one new version, so each cart sees all of them or none
+    private long publish(Map<Fruit, Double> priceChanges, long changedFruits) {
+        long[] pricesInCents = new long[Fruit.VALUES.length];
+        for (Map.Entry<Fruit, Double> change : priceChanges.entrySet()) {
+            pricesInCents[change.getKey().ordinal()] = Money.toCents(change.getValue());
+        }
+        return catalog.updatePricesInCents(pricesInCents, changedFruits);
+    }
+
+    // returns true if the cart held a changed fruit and was repriced, or false if it was skipped
+    private boolean reprice(ShoppingCart cart, long changedFruits, long newVersion) {
+        if ((cart.getFruitsInCart() & changedFruits) == 0) {
+            cart.carryPricesForward(catalog, newVersion - 1, newVersion);
+            return false;
+        }
+        cart.getTotalPriceInCents(catalog);
+        return true;
+    }
+
+    // run the work on our pool, so its parallel streams are split across the pool's threads
+    private long inPool(Callable<Long> work) {
+        try {
+            return pool.submit(work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while repricing carts", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
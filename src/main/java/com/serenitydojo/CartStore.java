@@ -0,0 +1,282 @@
+package com.serenitydojo;
+
+import java.lang.reflect.Method;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// holds the shop's open carts by id, split across segments that each have their own lock, so requests for different
+// carts rarely wait for each other
+// requests for the same cart run one at a time, and carts that haven't been used for the idle timeout can be evicted
+// carts that are kept but not being used can be packed off the heap with compactIdle, and are unpacked again the
+// next time they are used
+public class CartStore {
+
+    // a piece of work to do with one cart, such as adding an item or working out the total
+    public interface CartTask<T> {
+        T apply(ShoppingCart cart) throws Exception;
+    }
+
+    // size of the request executor's thread pool on JVMs without virtual threads
+    private static final int PLATFORM_THREADS_PER_PROCESSOR = 8;
+
+    private final Segment[] segments;
+    private final long idleTimeoutMillis;
+    private final Clock clock;
+    private final CompactCartSlab slab = new CompactCartSlab();
+
+    // create a store with 64 segments that evicts carts after 30 minutes without use
+    public CartStore() {
+        this(64, Duration.ofMinutes(30), Clock.systemUTC());
+    }
+
+    // segments is rounded up to a power of two
+    public CartStore(int segments, Duration idleTimeout, Clock clock) {
+        int count = 1;
+        while (count < segments) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.clock = clock;
+    }
+
+    // method to run a task against a cart, creating an empty cart if there isn't one with that id yet
+    // the task has the cart to itself until it returns, so it can use the normal ShoppingCart methods
+    public <T> T withCart(long cartId, CartTask<T> task) throws Exception {
+        Segment segment = segmentFor(cartId);
+        Entry entry;
+        segment.lock.lock();
+        try {
+            entry = segment.carts.computeIfAbsent(cartId, id -> new Entry(new ShoppingCart()));
+            // while a task is using the entry it can't be evicted
+            entry.users++;
+            entry.lastUsed = clock.millis();
+        } finally {
+            segment.lock.unlock();
+        }
+        entry.lock.lock();
+        try {
+            return task.apply(entry.inflate(slab));
+        } finally {
+            entry.lock.unlock();
+            segment.lock.lock();
+            try {
+                entry.users--;
+                entry.lastUsed = clock.millis();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    // method to run a task against a cart on the given executor, e.g. one from newRequestExecutor()
+    public <T> CompletableFuture<T> submit(long cartId, CartTask<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return withCart(cartId, task);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // method to take a cart out of the store, returning null if there isn't one with that id
+    public ShoppingCart remove(long cartId) {
+        Segment segment = segmentFor(cartId);
+        segment.lock.lock();
+        try {
+            Entry entry = segment.carts.remove(cartId);
+            return entry == null ? null : entry.inflate(slab);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public boolean contains(long cartId) {
+        Segment segment = segmentFor(cartId);
+        segment.lock.lock();
+        try {
+            return segment.carts.containsKey(cartId);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // method to count the carts in the store
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.carts.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    // method to remove every cart that hasn't been used for the idle timeout, returning how many were removed
+    public int evictIdle() {
+        return evictIdle((id, cart) -> { });
+    }
+
+    // method to remove idle carts, passing each one to the listener, e.g. to give back its stock reservations
+    // the listener is called with the segment locked, so it should be quick
+    public int evictIdle(BiConsumer<Long, ShoppingCart> listener) {
+        long oldestAllowed = clock.millis() - idleTimeoutMillis;
+        int evicted = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                Iterator<Map.Entry<Long, Entry>> carts = segment.carts.entrySet().iterator();
+                while (carts.hasNext()) {
+                    Map.Entry<Long, Entry> cart = carts.next();
+                    Entry entry = cart.getValue();
+                    if (entry.users == 0 && entry.lastUsed < oldestAllowed) {
+                        carts.remove();
+                        listener.accept(cart.getKey(), entry.inflate(slab));
+                        evicted++;
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    // method to pack every cart that hasn't been used for the given time into compact off-heap storage, returning how
+    // many were packed - a packed cart keeps its quantities and its pricing when it is unpacked
+    public int compactIdle(Duration idleFor) {
+        long oldestAllowed = clock.millis() - idleFor.toMillis();
+        int compacted = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (Entry entry : segment.carts.values()) {
+                    if (entry.users == 0 && entry.cart != null && entry.lastUsed < oldestAllowed) {
+                        entry.handle = slab.store(entry.cart);
+                        entry.cart = null;
+                        compacted++;
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return compacted;
+    }
+
+    // run an action against every cart that isn't packed off the heap, holding the cart's lock while it runs
+    // the segments are visited by a parallel stream, so calling this from a fork-join pool spreads them over its
+    // threads - returns how many carts were in the store, packed or not
+    long forEachUnpackedCart(Consumer<ShoppingCart> action) {
+        return Arrays.stream(segments).parallel().mapToLong(segment -> {
+            List<Entry> unpacked = new ArrayList<>();
+            int seen;
+            segment.lock.lock();
+            try {
+                seen = segment.carts.size();
+                for (Entry entry : segment.carts.values()) {
+                    if (entry.cart != null) {
+                        // in use, so it can't be packed or evicted until the action has run
+                        entry.users++;
+                        unpacked.add(entry);
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+            for (Entry entry : unpacked) {
+                entry.lock.lock();
+                try {
+                    action.accept(entry.cart);
+                } finally {
+                    entry.lock.unlock();
+                    segment.lock.lock();
+                    try {
+                        entry.users--;
+                    } finally {
+                        segment.lock.unlock();
+                    }
+                }
+            }
+            return seen;
+        }).sum();
+    }
+
+    // method to count the carts that are currently packed off the heap
+    public int getCompactedCount() {
+        return slab.getCartsStored();
+    }
+
+    // method to create an executor that runs each request on its own thread
+    // uses virtual threads when the JVM has them (Java 21 or later), so a blocked request doesn't hold a platform
+    // thread, and otherwise falls back to a fixed pool of 8 platform threads per processor
+    // with the fixed pool, requests beyond that limit wait in its queue rather than each starting another thread
+    public static ExecutorService newRequestExecutor() {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(PLATFORM_THREADS_PER_PROCESSOR
+                    * Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private Segment segmentFor(long cartId) {
+        // spread the bits of the id so that ids that go up in steps still use every segment
+        long hash = cartId * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    private static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Long, Entry> carts = new HashMap<>();
+    }
+
+    // a cart plus what the store needs to know about it - users and lastUsed are guarded by the segment lock
+    // the cart is null while it is packed in the slab, and handle says where
+    private static final class Entry {
+        ShoppingCart cart;
+        long handle;
+        // a ReentrantLock rather than synchronized, so a virtual thread waiting for the cart doesn't pin its carrier
+        final ReentrantLock lock = new ReentrantLock();
+        int users;
+        long lastUsed;
+
+        Entry(ShoppingCart cart) {
+            this.cart = cart;
+        }
+
+        // unpack the cart if it was packed, and free its slot
+        // synchronized because remove can unpack a cart while a task is waiting to use it
+        synchronized ShoppingCart inflate(CompactCartSlab slab) {
+            if (cart == null) {
+                cart = slab.load(handle);
+                slab.free(handle);
+            }
+            return cart;
+        }
+    }
+}
@@ -1,17 +1,132 @@
 package com.serenitydojo;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
 
 public class Catalog {
-    // create a map to hold our fruit/price key/value pairs
-    private final Map<Fruit, Double> fruitToPrice = new HashMap<>();
+    // hold our fruit prices and stock levels as an immutable snapshot that is swapped atomically on every update
+    // readers only ever do a single volatile read, so they never block and never see a half-applied update
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
 
-    // create a List to hold the fruits that are added to the catalog
-    private final List<CatalogItem> availableFruits = new ArrayList<>();
+    // the most recent snapshots kept for auditing, in slots indexed by version - null when no history is kept
+    // snapshots share every array that didn't change, so keeping one costs little more than the change itself
+    private final AtomicReferenceArray<Snapshot> history;
+
+    // where prices are looked up when they don't all live in the catalog - null for a catalog that only has the
+    // prices it is given
+    private final PriceSource priceSource;
+
+    // constructor for an empty catalog that keeps no old versions
+    public Catalog() {
+        this(0);
+    }
+
+    // constructor for an empty catalog that keeps its most recent versions, so they can be looked up with getSnapshot
+    public Catalog(int versionsToKeep) {
+        this(versionsToKeep, null);
+    }
+
+    private Catalog(int versionsToKeep, PriceSource priceSource) {
+        if (versionsToKeep < 0) {
+            throw new IllegalArgumentException("The number of versions to keep must not be negative");
+        }
+        this.history = versionsToKeep == 0 ? null : new AtomicReferenceArray<>(versionsToKeep);
+        this.priceSource = priceSource;
+        remember(Snapshot.EMPTY);
+    }
+
+    // constructor for a catalog whose prices come from somewhere else, usually a PriceCache in front of the pricing
+    // service - getPriceOf reads through to the source, and any price that has changed is published into the
+    // catalog so carts are priced with it
+    public static Catalog backedBy(PriceSource priceSource) {
+        return new Catalog(0, priceSource);
+    }
+
+    // constructor for a catalog rebuilt from saved prices and stock, carrying on from the saved price version
+    static Catalog restored(long[] prices, long pricedFruits, long priceVersion, long[] stock) {
+        Catalog catalog = new Catalog();
+        catalog.snapshot.set(new Snapshot(0, prices, pricedFruits, priceVersion, stock, Snapshot.sortedView(stock)));
+        return catalog;
+    }
 
     public void updatePriceOf(Fruit fruit, double price) {
-        // use HashMap .put() method to update the fruit with the new price
-        fruitToPrice.put(fruit, price);
+        // prices are stored as a whole number of cents so that totals add up exactly
+        updatePriceInCentsOf(fruit, Money.toCents(price));
+    }
+
+    public void updatePriceInCentsOf(Fruit fruit, long priceInCents) {
+        // copy the current snapshot with the new price and publish it with compare-and-set
+        // if another thread published first, retry against its snapshot so no update is lost
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = current.withPrice(fruit, priceInCents);
+        } while (!snapshot.compareAndSet(current, updated));
+        remember(updated);
+    }
+
+    // update the prices of several fruits at once, publishing them together as one new version
+    // pricesInCents is indexed by Fruit.ordinal(), and only the fruits whose bits are set in fruits are changed
+    // returns the new price version - the version before it differs only in the changed fruits
+    long updatePricesInCents(long[] pricesInCents, long fruits) {
+        if (fruits == 0) {
+            return snapshot.get().priceVersion;
+        }
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = current.withPrices(pricesInCents, fruits);
+        } while (!snapshot.compareAndSet(current, updated));
+        remember(updated);
+        return updated.priceVersion;
+    }
+
+    // method to add a quantity of a fruit to the stock index
+    // stock is kept as one running total per fruit, so adding 2 million kg costs the same as adding 1 kg
+    public void addStock(Fruit fruit, long quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Cannot add a negative quantity of " + fruit + " to the catalog");
+        }
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            updated = current.withStock(fruit, quantity);
+        } while (!snapshot.compareAndSet(current, updated));
+        remember(updated);
+    }
+
+    // take sold fruit out of the stock - used by StockReservations.commit, which only sells what it reserved
+    void takeStock(Fruit fruit, long quantity) {
+        Snapshot current;
+        Snapshot updated;
+        do {
+            current = snapshot.get();
+            if (current.stock[fruit.ordinal()] < quantity) {
+                throw new IllegalArgumentException("There isn't " + quantity + " kg of " + fruit + " in stock");
+            }
+            updated = current.withStock(fruit, -quantity);
+        } while (!snapshot.compareAndSet(current, updated));
+        remember(updated);
+    }
+
+    // put a newly published snapshot into its history slot, unless a newer one has already taken it
+    private void remember(Snapshot published) {
+        if (history == null) {
+            return;
+        }
+        int slot = (int) (published.version % history.length());
+        Snapshot existing;
+        do {
+            existing = history.get(slot);
+            if (existing != null && existing.version >= published.version) {
+                return;
+            }
+        } while (!history.compareAndSet(slot, existing, published));
     }
 
     // constructor for default catalog
@@ -23,9 +138,9 @@ public class Catalog {
         catalog.updatePriceOf(Fruit.BANANA, 6.00);
         catalog.updatePriceOf(Fruit.ORANGE, 5.50);
         catalog.updatePriceOf(Fruit.PEAR, 4.50);
-        // add default items to the availableFruits List
+        // add 5 kg of each default fruit to the stock
         for (Fruit fruit : Arrays.asList(Fruit.APPLE, Fruit.BANANA, Fruit.ORANGE, Fruit.PEAR)) {
-            catalog.availableFruits.add(new CatalogItem(fruit, 5));
+            catalog.addStock(fruit, 5);
         }
         return catalog;
     }
@@ -38,52 +153,324 @@ public class Catalog {
         for(Map.Entry<Fruit, Double> entry : customPrices.entrySet()) {
             catalog.updatePriceOf(entry.getKey(), entry.getValue());
         }
-        // for every item included in the constructor parameters
+        // add the quantity of every item included in the constructor parameters to the stock
+        // items for the same fruit are added together into a single entry
         for (CatalogItem catalogItem : catalogItems) {
-            // iterate through and add them to the availableFruits List
-            for (int i = 0; i < catalogItem.getQuantity(); i++) {
-                catalog.availableFruits.add(catalogItem);
-            }
+            catalog.addStock(catalogItem.getFruit(), catalogItem.getQuantity());
         }
         return catalog;
     }
 
     // method to get the price of a given fruit
     public double getPriceOf(Fruit fruit) {
-        // if the fruitToPrice Map doesn't contain the queried fruit
-        if (!fruitToPrice.containsKey(fruit)) {
-            // throw the custom exception message
-            throw new FruitUnavailableException(fruit.name() + " is not available in the catalog.");
+        return Money.toDollars(getPriceInCentsOf(fruit));
+    }
+
+    // method to get the exact price of a given fruit in cents
+    public long getPriceInCentsOf(Fruit fruit) {
+        long start = ShopMetrics.start();
+        try {
+            // read the prices once so the check and the lookup see the same prices
+            long price = pricesFor(fruit.bit()).priceInCentsOf(fruit);
+            ShopMetrics.success(ShopMetrics.Operation.GET_PRICE, start);
+            return price;
+        } catch (RuntimeException e) {
+            ShopMetrics.failure(ShopMetrics.Operation.GET_PRICE, e, start);
+            throw e;
+        }
+    }
+
+    // the current prices, with the given fruits brought up to date from the price source if there is one
+    // every lookup of a price - by the catalog or by a cart - goes through here, so they all see what the source says
+    Snapshot pricesFor(long fruits) {
+        if (priceSource == null) {
+            return snapshot.get();
+        }
+        for (long remaining = fruits; remaining != 0; remaining &= remaining - 1) {
+            readThrough(Fruit.VALUES[Long.numberOfTrailingZeros(remaining)]);
+        }
+        return snapshot.get();
+    }
+
+    // ask the price source for one fruit and publish its answer if the catalog has something different
+    // the answer is only published over the price it was compared with - if another thread has published a
+    // different price for the fruit in the meantime, that one is at least as new and is kept
+    private void readThrough(Fruit fruit) {
+        Snapshot seen = snapshot.get();
+        boolean priced;
+        long price = 0;
+        try {
+            price = priceSource.loadPriceInCents(fruit);
+            priced = true;
+        } catch (FruitUnavailableException e) {
+            priced = false;
+        }
+        Snapshot current = seen;
+        while (true) {
+            if (current != seen && !samePrice(current, seen, fruit)) {
+                return;
+            }
+            if (priced == current.hasPrice(fruit) && (!priced || current.prices[fruit.ordinal()] == price)) {
+                // already says what the source says
+                return;
+            }
+            Snapshot updated = priced ? current.withPrice(fruit, price) : current.withoutPrice(fruit);
+            if (snapshot.compareAndSet(current, updated)) {
+                remember(updated);
+                return;
+            }
+            current = snapshot.get();
+        }
+    }
+
+    private static boolean samePrice(Snapshot a, Snapshot b, Fruit fruit) {
+        return a.hasPrice(fruit) == b.hasPrice(fruit)
+                && (!a.hasPrice(fruit) || a.prices[fruit.ordinal()] == b.prices[fruit.ordinal()]);
+    }
+
+    // method to load the price of every fruit from the price source and publish them together as one version
+    // prices are read through one at a time as they are needed anyway, so this is only for warming the catalog up
+    // before the shop opens - fruits the source has no price for are left as they are
+    public void loadPrices() {
+        if (priceSource == null) {
+            throw new IllegalStateException("This catalog isn't backed by a price source");
+        }
+        long[] pricesInCents = new long[Fruit.VALUES.length];
+        long loaded = 0;
+        for (Fruit fruit : Fruit.VALUES) {
+            try {
+                pricesInCents[fruit.ordinal()] = priceSource.loadPriceInCents(fruit);
+                loaded |= fruit.bit();
+            } catch (FruitUnavailableException e) {
+                // not sold at the moment
+            }
+        }
+        updatePricesInCents(pricesInCents, loaded);
+    }
+
+    // method to get the price of a given fruit, or the default if it isn't in the catalog
+    // use this instead of getPriceOf when an unavailable fruit is routine, as no exception is created
+    public double getPriceOrDefault(Fruit fruit, double defaultPrice) {
+        Snapshot current = pricesFor(fruit.bit());
+        return current.hasPrice(fruit) ? Money.toDollars(current.prices[fruit.ordinal()]) : defaultPrice;
+    }
+
+    // method to get the version of the current prices - it goes up by one on every price update
+    public long getPriceVersion() {
+        return snapshot.get().priceVersion;
+    }
+
+    // method to pin the current prices and stock, e.g. so a checkout prices every line against the same version
+    // read it once and use it for several lookups, so they all see the same prices
+    // for a catalog backed by a price source, this is the prices as last read through - it doesn't ask the source
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    // method to look up an earlier version of the catalog, if it is still one of the versions being kept
+    public Optional<Snapshot> getSnapshot(long version) {
+        Snapshot current = snapshot.get();
+        if (version == current.version) {
+            return Optional.of(current);
+        }
+        if (history == null || version < 0) {
+            return Optional.empty();
+        }
+        Snapshot kept = history.get((int) (version % history.length()));
+        return kept != null && kept.version == version ? Optional.of(kept) : Optional.empty();
+    }
+
+    // method to list the versions still being kept, oldest first
+    public List<Snapshot> getSnapshotHistory() {
+        if (history == null) {
+            return Collections.singletonList(snapshot.get());
         }
-        // otherwise get the price of the available fruit
-        return fruitToPrice.get(fruit);
+        List<Snapshot> kept = new ArrayList<>(history.length());
+        for (int slot = 0; slot < history.length(); slot++) {
+            if (history.get(slot) != null) {
+                kept.add(history.get(slot));
+            }
+        }
+        kept.sort(Comparator.comparingLong(Snapshot::getVersion));
+        return kept;
+    }
+
+    // method to get how much of a given fruit is in stock
+    public long getStockOf(Fruit fruit) {
+        return snapshot.get().stock[fruit.ordinal()];
     }
 
-    // method to get a List of which fruits are available in the catalog
+    // method to get a List of which fruits are available in the catalog, sorted by fruit name
+    // the list is built when the stock changes and shared by every call after that, so it cannot be modified
     public List<CatalogItem> getAvailableFruits() throws FruitUnavailableException {
-        // if existing List of availableFruits contains no fruit, throw an exception
-        if(availableFruits.isEmpty()) {
-            throw new FruitUnavailableException("No fruits are available in the catalog");
+        long start = ShopMetrics.start();
+        List<CatalogItem> availableFruits = snapshot.get().availableFruits;
+        // if no fruit is in stock, throw an exception
+        if (availableFruits.isEmpty()) {
+            FruitUnavailableException failure = new FruitUnavailableException("No fruits are available in the catalog");
+            ShopMetrics.failure(ShopMetrics.Operation.GET_AVAILABLE_FRUITS, failure, start);
+            throw failure;
+        }
+        ShopMetrics.success(ShopMetrics.Operation.GET_AVAILABLE_FRUITS, start);
+        return availableFruits;
+    }
+
+    // method to get one page of the available fruits, e.g. getAvailableFruits(20, 10) for the third page of 10
+    // unlike getAvailableFruits(), a page past the end (or of an empty catalog) is just an empty list
+    public List<CatalogItem> getAvailableFruits(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
         }
-        // otherwise, create a new List from availableFruits and sort it by fruit name, then quantity
-        List<CatalogItem> sortedFruits = new ArrayList<>(availableFruits);
-        sortedFruits.sort(Comparator
-                .<CatalogItem, String>comparing(item -> item.getFruit().name())
-                .thenComparingInt(CatalogItem::getQuantity));
-        return sortedFruits;
+        List<CatalogItem> availableFruits = snapshot.get().availableFruits;
+        int from = Math.min(offset, availableFruits.size());
+        int to = (int) Math.min((long) from + limit, availableFruits.size());
+        return availableFruits.subList(from, to);
     }
 
-    // method to determine if a given fruit is present in our Map or not
+    // method to stream the available fruits in name order without building a new list
+    public Stream<CatalogItem> availableFruits() {
+        return snapshot.get().availableFruits.stream();
+    }
+
+    // method to determine if a given fruit has a price in the catalog or not
     public boolean containsFruit(Fruit fruit) {
-        return fruitToPrice.containsKey(fruit);
+        return pricesFor(fruit.bit()).hasPrice(fruit);
     }
 
     // method to print what is currently in the catalog - useful for debugging
+    // see ShopMetrics for counts and timings of the catalog and cart operations
     public void printCatalog() {
         System.out.println("Catalog Contents:");
-        // iterate through the List of availableFruits and print out a message including the fruit name and quantity
-        for(CatalogItem item : availableFruits) {
-            System.out.println(item.getFruit() + " - Quantity: " + item.getQuantity());
+        long[] stock = snapshot.get().stock;
+        // print out a message including the fruit name and quantity for every fruit in stock
+        for (Fruit fruit : Fruit.VALUES) {
+            if (stock[fruit.ordinal()] > 0) {
+                System.out.println(fruit + " - Quantity: " + stock[fruit.ordinal()]);
+            }
+        }
+    }
+
+    // CatalogItem holds an int quantity, so very large stock levels are reported as Integer.MAX_VALUE
+    // use getStockOf() for the exact amount
+    private static int quantityOf(long stock) {
+        return (int) Math.min(stock, Integer.MAX_VALUE);
+    }
+
+    // the fruits in alphabetical order of their names, worked out once so the sorted view never needs a comparator
+    private static final Fruit[] BY_NAME = Arrays.stream(Fruit.VALUES)
+            .sorted(Comparator.comparing(Fruit::name))
+            .toArray(Fruit[]::new);
+
+    // an immutable copy of the prices and stock levels - never modified once it has been published
+    // both are stored in primitive arrays of whole cents and kilos indexed by Fruit.ordinal(), with a bitset recording which fruits have a price
+    // every update makes a new snapshot that shares whatever it didn't change with the one before
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, new long[Fruit.VALUES.length], 0L, 0,
+                new long[Fruit.VALUES.length], Collections.<CatalogItem>emptyList());
+
+        // goes up by one on every update, to prices or stock
+        final long version;
+        // prices in cents
+        final long[] prices;
+        final long pricedFruits;
+        final long priceVersion;
+        final long[] stock;
+        // sorted view of the stock, rebuilt only when the stock changes
+        final List<CatalogItem> availableFruits;
+
+        private Snapshot(long version, long[] prices, long pricedFruits, long priceVersion,
+                         long[] stock, List<CatalogItem> availableFruits) {
+            this.version = version;
+            this.prices = prices;
+            this.pricedFruits = pricedFruits;
+            this.priceVersion = priceVersion;
+            this.stock = stock;
+            this.availableFruits = availableFruits;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getPriceVersion() {
+            return priceVersion;
+        }
+
+        public boolean containsFruit(Fruit fruit) {
+            return hasPrice(fruit);
+        }
+
+        public double getPriceOf(Fruit fruit) {
+            return Money.toDollars(priceInCentsOf(fruit));
+        }
+
+        public long getPriceInCentsOf(Fruit fruit) {
+            return priceInCentsOf(fruit);
+        }
+
+        public long getStockOf(Fruit fruit) {
+            return stock[fruit.ordinal()];
+        }
+
+        // the fruits in stock at this version, sorted by fruit name - empty rather than an exception if there are none
+        public List<CatalogItem> getAvailableFruits() {
+            return availableFruits;
+        }
+
+        boolean hasPrice(Fruit fruit) {
+            return (pricedFruits & fruit.bit()) != 0;
+        }
+
+        long priceInCentsOf(Fruit fruit) {
+            // if the snapshot doesn't contain the queried fruit
+            if (!hasPrice(fruit)) {
+                // throw the custom exception message
+                throw new FruitUnavailableException(fruit.name() + " is not available in the catalog.");
+            }
+            // otherwise return the price of the available fruit
+            return prices[fruit.ordinal()];
+        }
+
+        // create the next version of the snapshot with one price changed - the stock and sorted view are shared
+        Snapshot withPrice(Fruit fruit, long price) {
+            long[] updated = prices.clone();
+            updated[fruit.ordinal()] = price;
+            return new Snapshot(version + 1, updated, pricedFruits | fruit.bit(), priceVersion + 1, stock, availableFruits);
+        }
+
+        // create the next version of the snapshot with a fruit no longer priced - the arrays are all shared
+        Snapshot withoutPrice(Fruit fruit) {
+            return new Snapshot(version + 1, prices, pricedFruits & ~fruit.bit(), priceVersion + 1, stock,
+                    availableFruits);
+        }
+
+        // create the next version of the snapshot with several prices changed
+        Snapshot withPrices(long[] changedPrices, long changedFruits) {
+            long[] updated = prices.clone();
+            for (long remaining = changedFruits; remaining != 0; remaining &= remaining - 1) {
+                int ordinal = Long.numberOfTrailingZeros(remaining);
+                updated[ordinal] = changedPrices[ordinal];
+            }
+            return new Snapshot(version + 1, updated, pricedFruits | changedFruits, priceVersion + 1, stock,
+                    availableFruits);
+        }
+
+        // create a copy of the snapshot with more (or less) stock of one fruit - the price array is shared
+        Snapshot withStock(Fruit fruit, long quantity) {
+            long[] updated = stock.clone();
+            updated[fruit.ordinal()] = Math.addExact(updated[fruit.ordinal()], quantity);
+            return new Snapshot(version + 1, prices, pricedFruits, priceVersion, updated, sortedView(updated));
+        }
+
+        // build the sorted list of fruits in stock by walking the fruits in name order
+        static List<CatalogItem> sortedView(long[] stock) {
+            List<CatalogItem> sortedFruits = new ArrayList<>(BY_NAME.length);
+            for (Fruit fruit : BY_NAME) {
+                if (stock[fruit.ordinal()] > 0) {
+                    sortedFruits.add(new CatalogItem(fruit, quantityOf(stock[fruit.ordinal()])));
+                }
+            }
+            return Collections.unmodifiableList(sortedFruits);
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.serenitydojo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// a catalog's prices and stock saved in a compact binary file that is read back through a memory mapping
+// opening a file only checks the header and finds each fruit's record - prices are read straight from the
+// mapping when they are asked for, so a restart doesn't have to rebuild anything
+// it is also a PriceSource, so Catalog.backedBy(file) gives a catalog that loads each price from the file the
+// first time it is needed
+//
+// file layout (big-endian):
+//   header:  int magic, int format version, int record count, int unused, long price version
+//   records: 16 byte fruit name (ASCII, zero padded), int flags, int unused, long price in cents, long stock
+public final class CatalogSnapshotFile implements PriceSource {
+
+    private static final int MAGIC = 0x46525554; // "FRUT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 40;
+    private static final int NAME_SIZE = 16;
+    private static final int PRICED = 1;
+
+    // offsets of the parts of a record
+    private static final int FLAGS = NAME_SIZE;
+    private static final int PRICE = NAME_SIZE + 8;
+    private static final int STOCK = NAME_SIZE + 16;
+
+    private final MappedByteBuffer mapping;
+    // where each fruit's record starts in the mapping, indexed by Fruit.ordinal(), or -1 if it has no record
+    private final int[] recordOffsets;
+    private final long priceVersion;
+
+    private CatalogSnapshotFile(MappedByteBuffer mapping, int[] recordOffsets, long priceVersion) {
+        this.mapping = mapping;
+        this.recordOffsets = recordOffsets;
+        this.priceVersion = priceVersion;
+    }
+
+    // method to save the catalog's current prices and stock to a file
+    // the file is written next to the target and then moved over it, so readers never see a half-written file
+    public static void write(Catalog catalog, Path file) throws IOException {
+        Catalog.Snapshot snapshot = catalog.snapshot();
+        int records = 0;
+        for (Fruit fruit : Fruit.VALUES) {
+            if (snapshot.hasPrice(fruit) || snapshot.stock[fruit.ordinal()] > 0) {
+                records++;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records * RECORD_SIZE);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(records).putInt(0).putLong(snapshot.priceVersion);
+        for (Fruit fruit : Fruit.VALUES) {
+            if (snapshot.hasPrice(fruit) || snapshot.stock[fruit.ordinal()] > 0) {
+                buffer.put(Arrays.copyOf(nameOf(fruit), NAME_SIZE));
+                buffer.putInt(snapshot.hasPrice(fruit) ? PRICED : 0).putInt(0);
+                buffer.putLong(snapshot.prices[fruit.ordinal()]);
+                buffer.putLong(snapshot.stock[fruit.ordinal()]);
+            }
+        }
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // method to open a saved catalog file
+    public static CatalogSnapshotFile open(Path file) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapping.capacity() < HEADER_SIZE || mapping.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a catalog snapshot");
+        }
+        if (mapping.getInt(4) != FORMAT_VERSION) {
+            throw new IOException(file + " has unsupported snapshot format " + mapping.getInt(4));
+        }
+        int records = mapping.getInt(8);
+        if (records < 0 || mapping.capacity() < HEADER_SIZE + (long) records * RECORD_SIZE) {
+            throw new IOException(file + " is truncated");
+        }
+        int[] recordOffsets = new int[Fruit.VALUES.length];
+        Arrays.fill(recordOffsets, -1);
+        for (int record = 0; record < records; record++) {
+            int offset = HEADER_SIZE + record * RECORD_SIZE;
+            Fruit fruit = fruitNamed(mapping, offset);
+            // skip fruit the shop no longer sells
+            if (fruit != null) {
+                recordOffsets[fruit.ordinal()] = offset;
+            }
+        }
+        return new CatalogSnapshotFile(mapping, recordOffsets, mapping.getLong(16));
+    }
+
+    // method to determine if a given fruit had a price when the file was saved
+    public boolean containsFruit(Fruit fruit) {
+        int offset = recordOffsets[fruit.ordinal()];
+        return offset >= 0 && (mapping.getInt(offset + FLAGS) & PRICED) != 0;
+    }
+
+    // method to get the saved price of a given fruit in cents, read from the mapping
+    public long getPriceInCentsOf(Fruit fruit) {
+        if (!containsFruit(fruit)) {
+            throw new FruitUnavailableException(fruit.name() + " is not available in the catalog.");
+        }
+        return mapping.getLong(recordOffsets[fruit.ordinal()] + PRICE);
+    }
+
+    @Override
+    public long loadPriceInCents(Fruit fruit) {
+        return getPriceInCentsOf(fruit);
+    }
+
+    public double getPriceOf(Fruit fruit) {
+        return Money.toDollars(getPriceInCentsOf(fruit));
+    }
+
+    // method to get the saved stock of a given fruit, read from the mapping
+    public long getStockOf(Fruit fruit) {
+        int offset = recordOffsets[fruit.ordinal()];
+        return offset < 0 ? 0 : mapping.getLong(offset + STOCK);
+    }
+
+    // the catalog's price version when the file was saved
+    public long getPriceVersion() {
+        return priceVersion;
+    }
+
+    // method to load the saved prices and stock into a new catalog, published as a single snapshot that keeps the
+    // saved price version, so getPriceVersion() on the catalog matches the file
+    public Catalog toCatalog() {
+        long[] prices = new long[Fruit.VALUES.length];
+        long[] stock = new long[Fruit.VALUES.length];
+        long pricedFruits = 0;
+        for (Fruit fruit : Fruit.VALUES) {
+            if (containsFruit(fruit)) {
+                prices[fruit.ordinal()] = getPriceInCentsOf(fruit);
+                pricedFruits |= fruit.bit();
+            }
+            stock[fruit.ordinal()] = getStockOf(fruit);
+        }
+        return Catalog.restored(prices, pricedFruits, priceVersion, stock);
+    }
+
+    private static byte[] nameOf(Fruit fruit) {
+        byte[] name = fruit.name().getBytes(StandardCharsets.US_ASCII);
+        if (name.length > NAME_SIZE) {
+            throw new IllegalStateException(fruit + " has too long a name for the snapshot format");
+        }
+        return name;
+    }
+
+    // find the fruit whose name is stored at the start of a record, or null if there is no such fruit
+    private static Fruit fruitNamed(ByteBuffer mapping, int offset) {
+        for (Fruit fruit : Fruit.VALUES) {
+            byte[] name = nameOf(fruit);
+            boolean matches = name.length == NAME_SIZE || mapping.get(offset + name.length) == 0;
+            for (int i = 0; matches && i < name.length; i++) {
+                matches = mapping.get(offset + i) == name[i];
+            }
+            if (matches) {
+                return fruit;
+            }
+        }
+        return null;
+    }
+}
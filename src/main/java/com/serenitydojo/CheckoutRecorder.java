@@ -0,0 +1,275 @@
+package com.serenitydojo;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// records every completed checkout, one row per line, so the shop's sales can be analysed afterwards
+// rows are stored by column in fixed-size segments of primitive arrays - a timestamp, the fruit, the kilos, the
+// revenue and some flags - so a query only reads the columns it needs, with no objects or strings per row
+// queries run over the segments in parallel and add up the answers from each one
+public class CheckoutRecorder {
+
+    // flags column
+    private static final byte DISCOUNTED = 1;
+    private static final byte FIRST_LINE = 2;
+
+    private final int segmentSize;
+    private final Clock clock;
+
+    // segments are only ever added, so readers take the array and the number in use without a lock
+    // only the last segment is still being written to
+    private volatile Segment[] segments;
+    private volatile int segmentCount;
+    private final Object appendLock = new Object();
+
+    // create a recorder with segments of 64K rows that timestamps checkouts with the system clock
+    public CheckoutRecorder() {
+        this(1 << 16, Clock.systemUTC());
+    }
+
+    public CheckoutRecorder(int segmentSize, Clock clock) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segments must hold at least one row");
+        }
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+        this.segments = new Segment[] { new Segment(segmentSize) };
+        this.segmentCount = 1;
+    }
+
+    // method to record a completed cart, priced against the catalog as it is now
+    // the revenue of each line is its share of the cart's total after discounts, so the revenue column adds up
+    // to exactly what was charged
+    public void record(ShoppingCart cart, Catalog catalog) {
+        long fruitsInCart = cart.getFruitsInCart();
+        Catalog.Snapshot prices = catalog.pricesFor(fruitsInCart);
+        long total = cart.getTotalPriceInCents(prices);
+        if (fruitsInCart == 0) {
+            return;
+        }
+        long subtotal = 0;
+        for (long remaining = fruitsInCart; remaining != 0; remaining &= remaining - 1) {
+            Fruit fruit = Fruit.VALUES[Long.numberOfTrailingZeros(remaining)];
+            subtotal += Money.times(prices.priceInCentsOf(fruit), cart.getItemQuantity(fruit));
+        }
+        byte discounted = total < subtotal ? DISCOUNTED : 0;
+
+        synchronized (appendLock) {
+            long timestamp = clock.millis();
+            long allocated = 0;
+            byte flags = (byte) (discounted | FIRST_LINE);
+            for (long remaining = fruitsInCart; remaining != 0; remaining &= remaining - 1) {
+                Fruit fruit = Fruit.VALUES[Long.numberOfTrailingZeros(remaining)];
+                int quantity = cart.getItemQuantity(fruit);
+                long revenue;
+                if ((remaining & (remaining - 1)) == 0) {
+                    // the last line takes whatever rounding left over
+                    revenue = total - allocated;
+                } else {
+                    long linePrice = Money.times(prices.priceInCentsOf(fruit), quantity);
+                    revenue = subtotal == 0 ? 0 : Math.multiplyExact(linePrice, total) / subtotal;
+                }
+                allocated += revenue;
+                writableSegment().append(timestamp, fruit, quantity, revenue, flags);
+                flags = discounted;
+            }
+        }
+    }
+
+    // number of checkouts recorded
+    public long getCheckoutCount() {
+        return segments().parallel()
+                .mapToLong(segment -> segment.countFlags(FIRST_LINE, FIRST_LINE))
+                .sum();
+    }
+
+    // number of cart lines recorded
+    public long getLineCount() {
+        return segments().mapToLong(segment -> segment.size).sum();
+    }
+
+    // method to get the total kilos sold of each fruit that has been sold
+    public Map<Fruit, Long> getKgSoldByFruit() {
+        return byFruit(sumByFruit(false));
+    }
+
+    // method to get the total revenue in cents from each fruit that has been sold
+    public Map<Fruit, Long> getRevenueByFruit() {
+        return byFruit(sumByFruit(true));
+    }
+
+    // method to get the fraction of checkouts that got a discount, or 0 if nothing has been recorded
+    public double getDiscountHitRate() {
+        long[] counts = segments().parallel()
+                .map(segment -> new long[] {
+                        segment.countFlags(FIRST_LINE, FIRST_LINE),
+                        segment.countFlags(FIRST_LINE | DISCOUNTED, FIRST_LINE | DISCOUNTED) })
+                .reduce(new long[2], (a, b) -> new long[] { a[0] + b[0], a[1] + b[1] });
+        return counts[0] == 0 ? 0.0 : (double) counts[1] / counts[0];
+    }
+
+    // method to get the revenue in cents for each period with any sales, e.g. revenueByPeriod(Duration.ofHours(1))
+    // for hourly takings - periods start at whole multiples of the duration since the epoch
+    public NavigableMap<Instant, Long> getRevenueByPeriod(Duration period) {
+        return sumByPeriod(period, -1, true);
+    }
+
+    // method to get the kilos of one fruit sold in each period with any sales of it
+    public NavigableMap<Instant, Long> getKgSoldByPeriod(Fruit fruit, Duration period) {
+        return sumByPeriod(period, fruit.ordinal(), false);
+    }
+
+    // called with the append lock held
+    private Segment writableSegment() {
+        Segment last = segments[segmentCount - 1];
+        if (last.size < segmentSize) {
+            return last;
+        }
+        Segment[] grown = segments;
+        if (segmentCount == grown.length) {
+            grown = Arrays.copyOf(grown, grown.length * 2);
+        }
+        Segment next = new Segment(segmentSize);
+        grown[segmentCount] = next;
+        // publish the array before the count, so a reader that sees the new count also sees the new segment
+        segments = grown;
+        segmentCount = segmentCount + 1;
+        return next;
+    }
+
+    // the count is read before the array, as the array is always published first when a segment is added
+    private Stream<Segment> segments() {
+        int count = segmentCount;
+        return Arrays.stream(segments, 0, count);
+    }
+
+    private long[] sumByFruit(boolean revenue) {
+        return segments().parallel()
+                .map(segment -> segment.sumByFruit(revenue))
+                .reduce(new long[Fruit.VALUES.length], CheckoutRecorder::add);
+    }
+
+    private NavigableMap<Instant, Long> sumByPeriod(Duration period, int fruitOrdinal, boolean revenue) {
+        long periodMillis = period.toMillis();
+        if (periodMillis < 1) {
+            throw new IllegalArgumentException("The period must be at least a millisecond");
+        }
+        TreeMap<Long, Long> sums = segments().parallel()
+                .map(segment -> segment.sumByPeriod(periodMillis, fruitOrdinal, revenue))
+                .reduce(new TreeMap<>(), (a, b) -> {
+                    TreeMap<Long, Long> merged = new TreeMap<>(a);
+                    b.forEach((start, sum) -> merged.merge(start, sum, Long::sum));
+                    return merged;
+                });
+        NavigableMap<Instant, Long> byPeriod = new TreeMap<>();
+        sums.forEach((start, sum) -> byPeriod.put(Instant.ofEpochMilli(start), sum));
+        return Collections.unmodifiableNavigableMap(byPeriod);
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] sum = new long[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    private static Map<Fruit, Long> byFruit(long[] sums) {
+        Map<Fruit, Long> byFruit = new EnumMap<>(Fruit.class);
+        for (Fruit fruit : Fruit.VALUES) {
+            if (sums[fruit.ordinal()] != 0) {
+                byFruit.put(fruit, sums[fruit.ordinal()]);
+            }
+        }
+        return Collections.unmodifiableMap(byFruit);
+    }
+
+    // one block of rows, stored column by column
+    // rows are written before size is increased, so a reader that reads size first only sees finished rows
+    private static final class Segment {
+        final long[] timestamps;
+        final byte[] fruits;
+        final int[] kg;
+        final long[] revenue;
+        final byte[] flags;
+        volatile int size;
+
+        Segment(int capacity) {
+            timestamps = new long[capacity];
+            fruits = new byte[capacity];
+            kg = new int[capacity];
+            revenue = new long[capacity];
+            flags = new byte[capacity];
+        }
+
+        void append(long timestamp, Fruit fruit, int quantity, long lineRevenue, byte lineFlags) {
+            int row = size;
+            timestamps[row] = timestamp;
+            fruits[row] = (byte) fruit.ordinal();
+            kg[row] = quantity;
+            revenue[row] = lineRevenue;
+            flags[row] = lineFlags;
+            size = row + 1;
+        }
+
+        long[] sumByFruit(boolean useRevenue) {
+            int rows = size;
+            long[] sums = new long[Fruit.VALUES.length];
+            if (useRevenue) {
+                for (int row = 0; row < rows; row++) {
+                    sums[fruits[row]] += revenue[row];
+                }
+            } else {
+                for (int row = 0; row < rows; row++) {
+                    sums[fruits[row]] += kg[row];
+                }
+            }
+            return sums;
+        }
+
+        long countFlags(int mask, int expected) {
+            int rows = size;
+            long count = 0;
+            for (int row = 0; row < rows; row++) {
+                count += (flags[row] & mask) == expected ? 1 : 0;
+            }
+            return count;
+        }
+
+        // rows are appended in time order, so sums are built up one period at a time and stored when it changes
+        TreeMap<Long, Long> sumByPeriod(long periodMillis, int fruitOrdinal, boolean useRevenue) {
+            int rows = size;
+            TreeMap<Long, Long> sums = new TreeMap<>();
+            long currentStart = Long.MIN_VALUE;
+            long currentSum = 0;
+            boolean any = false;
+            for (int row = 0; row < rows; row++) {
+                if (fruitOrdinal >= 0 && fruits[row] != fruitOrdinal) {
+                    continue;
+                }
+                long start = Math.floorDiv(timestamps[row], periodMillis) * periodMillis;
+                if (start != currentStart) {
+                    if (any) {
+                        sums.merge(currentStart, currentSum, Long::sum);
+                    }
+                    currentStart = start;
+                    currentSum = 0;
+                    any = true;
+                }
+                currentSum += useRevenue ? revenue[row] : kg[row];
+            }
+            if (any) {
+                sums.merge(currentStart, currentSum, Long::sum);
+            }
+            return sums;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.serenitydojo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// stores carts off the heap in a few bytes each, for carts that are kept but not being used
+// a cart is packed as a count of lines followed by, for each line, the fruit ordinal and the quantity as a varint
+// (7 bits per byte), so a cart with two small lines takes 5 bytes
+// a cart with anything other than the standard pricing sets the top bit of the count and adds the number of its
+// pricing pipeline as a varint after it - each distinct pipeline is remembered once, in the order first seen
+// a cart holding stock reservations sets the next bit, and after the lines adds a count of reservations followed by
+// the fruit ordinal and reserved quantity of each
+// packed carts go in fixed-size slots of 8, 16, 48 or 96 bytes, carved out of 64 KB direct buffers, and freed slots
+// are reused before new ones are carved
+public class CompactCartSlab {
+
+    private static final int[] SLOT_SIZES = {8, 16, 48, 96};
+    private static final int SLAB_SIZE = 64 * 1024;
+
+    // a handle is the size class, the slab number and the slot number packed into a long
+    private static final int SLAB_SHIFT = 24;
+    private static final int CLASS_SHIFT = 48;
+    private static final long SLOT_MASK = (1L << SLAB_SHIFT) - 1;
+    private static final long SLAB_MASK = (1L << (CLASS_SHIFT - SLAB_SHIFT)) - 1;
+
+    // top bit of the line count, set when a pipeline number follows it
+    private static final int HAS_PIPELINE = 0x80;
+    // next bit of the line count, set when reservations follow the lines
+    private static final int HAS_RESERVATIONS = 0x40;
+
+    private final SizeClass[] sizeClasses = new SizeClass[SLOT_SIZES.length];
+    // scratch space for packing one cart - the largest cart fits in the largest slot
+    private final byte[] packed = new byte[SLOT_SIZES[SLOT_SIZES.length - 1]];
+    private int cartsStored;
+
+    // the pricing pipelines of stored carts other than the standard one, numbered in the order they were first seen
+    private final List<PricingPipeline> pipelines = new ArrayList<>();
+    private final Map<PricingPipeline, Integer> pipelineNumbers = new IdentityHashMap<>();
+
+    public CompactCartSlab() {
+        for (int i = 0; i < SLOT_SIZES.length; i++) {
+            sizeClasses[i] = new SizeClass(SLOT_SIZES[i]);
+        }
+    }
+
+    // method to pack a cart into the slab, returning a handle to get it back with
+    // the cart comes back with the same quantities and the same pricing pipeline
+    public synchronized long store(ShoppingCart cart) {
+        int length = 1;
+        int header = 0;
+        PricingPipeline pricing = cart.getPricing();
+        if (pricing != PricingPipeline.STANDARD) {
+            Integer number = pipelineNumbers.get(pricing);
+            if (number == null) {
+                number = pipelines.size();
+                pipelines.add(pricing);
+                pipelineNumbers.put(pricing, number);
+            }
+            header = HAS_PIPELINE;
+            length = writeVarint(number, length);
+        }
+        int lines = 0;
+        for (Fruit fruit : Fruit.VALUES) {
+            int quantity = cart.getItemQuantity(fruit);
+            if (quantity > 0) {
+                packed[length++] = (byte) fruit.ordinal();
+                length = writeVarint(quantity, length);
+                lines++;
+            }
+        }
+        int countAt = length++;
+        int reservations = 0;
+        for (Fruit fruit : Fruit.VALUES) {
+            int reserved = cart.getReserved(fruit);
+            if (reserved > 0) {
+                packed[length++] = (byte) fruit.ordinal();
+                length = writeVarint(reserved, length);
+                reservations++;
+            }
+        }
+        if (reservations > 0) {
+            header |= HAS_RESERVATIONS;
+            packed[countAt] = (byte) reservations;
+        } else {
+            // no reservations, so the count isn't needed
+            length--;
+        }
+        packed[0] = (byte) (header | lines);
+
+        int sizeClass = 0;
+        while (SLOT_SIZES[sizeClass] < length) {
+            sizeClass++;
+        }
+        long handle = sizeClasses[sizeClass].allocate(sizeClass);
+        ByteBuffer slab = slabOf(handle);
+        int offset = offsetOf(handle);
+        for (int i = 0; i < length; i++) {
+            slab.put(offset + i, packed[i]);
+        }
+        cartsStored++;
+        return handle;
+    }
+
+    // method to unpack a stored cart into a normal ShoppingCart - the cart stays in the slab until it is freed
+    public synchronized ShoppingCart load(long handle) {
+        ByteBuffer slab = slabOf(handle);
+        int position = offsetOf(handle);
+        int header = slab.get(position++) & 0xFF;
+        PricingPipeline pricing = PricingPipeline.STANDARD;
+        if ((header & HAS_PIPELINE) != 0) {
+            long number = readVarint(slab, position);
+            position = (int) (number >>> 32);
+            pricing = pipelines.get((int) number);
+        }
+        int lines = header & ~(HAS_PIPELINE | HAS_RESERVATIONS);
+        ShoppingCart cart = new ShoppingCart(pricing);
+        for (int line = 0; line < lines; line++) {
+            Fruit fruit = Fruit.VALUES[slab.get(position++)];
+            long quantity = readVarint(slab, position);
+            position = (int) (quantity >>> 32);
+            cart.restoreItem(fruit, (int) quantity);
+        }
+        if ((header & HAS_RESERVATIONS) != 0) {
+            int reservations = slab.get(position++);
+            for (int i = 0; i < reservations; i++) {
+                Fruit fruit = Fruit.VALUES[slab.get(position++)];
+                long reserved = readVarint(slab, position);
+                position = (int) (reserved >>> 32);
+                cart.setReserved(fruit, (int) reserved);
+            }
+        }
+        return cart;
+    }
+
+    // method to give a cart's slot back so it can be reused
+    public synchronized void free(long handle) {
+        sizeClasses[(int) (handle >>> CLASS_SHIFT)].free(handle);
+        cartsStored--;
+    }
+
+    public synchronized int getCartsStored() {
+        return cartsStored;
+    }
+
+    // method to get how much off-heap memory the slab has taken, in bytes
+    public synchronized long getReservedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += (long) sizeClass.slabs.size() * SLAB_SIZE;
+        }
+        return bytes;
+    }
+
+    private int writeVarint(int value, int position) {
+        while ((value & ~0x7F) != 0) {
+            packed[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        packed[position++] = (byte) value;
+        return position;
+    }
+
+    // read a varint starting at position - returns the position after it in the top 32 bits and the value in the
+    // bottom 32, so nothing needs to be allocated
+    private static long readVarint(ByteBuffer slab, int position) {
+        int value = 0;
+        int shift = 0;
+        byte next;
+        do {
+            next = slab.get(position++);
+            value |= (next & 0x7F) << shift;
+            shift += 7;
+        } while ((next & 0x80) != 0);
+        return ((long) position << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private ByteBuffer slabOf(long handle) {
+        return sizeClasses[(int) (handle >>> CLASS_SHIFT)].slabs.get((int) ((handle >>> SLAB_SHIFT) & SLAB_MASK));
+    }
+
+    private int offsetOf(long handle) {
+        return (int) (handle & SLOT_MASK) * SLOT_SIZES[(int) (handle >>> CLASS_SHIFT)];
+    }
+
+    // the slabs holding slots of one size, and the slots that have been freed
+    private static final class SizeClass {
+        final int slotsPerSlab;
+        final List<ByteBuffer> slabs = new ArrayList<>();
+        // slots never used yet in the newest slab start at nextSlot
+        int nextSlot;
+        // freed handles, used as a stack
+        long[] freeHandles = new long[16];
+        int freeCount;
+
+        SizeClass(int slotSize) {
+            this.slotsPerSlab = SLAB_SIZE / slotSize;
+            this.nextSlot = slotsPerSlab;
+        }
+
+        long allocate(int sizeClass) {
+            if (freeCount > 0) {
+                return freeHandles[--freeCount];
+            }
+            if (nextSlot == slotsPerSlab) {
+                slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+                nextSlot = 0;
+            }
+            return ((long) sizeClass << CLASS_SHIFT) | ((long) (slabs.size() - 1) << SLAB_SHIFT) | nextSlot++;
+        }
+
+        void free(long handle) {
+            if (freeCount == freeHandles.length) {
+                freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+            }
+            freeHandles[freeCount++] = handle;
+        }
+    }
+}
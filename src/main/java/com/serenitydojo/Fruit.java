@@ -1,6 +1,14 @@
 package com.serenitydojo;
 
 public enum Fruit {
-    APPLE, BANANA, MANGO, ORANGE, PEACH, PEAR
+    APPLE, BANANA, MANGO, ORANGE, PEACH, PEAR;
 
+    // cached copy of values() - calling values() clones the array every time, so the hot paths use this instead
+    // never modify this array
+    static final Fruit[] VALUES = values();
+
+    // the bit that represents this fruit in a presence bitset (one bit per ordinal)
+    long bit() {
+        return 1L << ordinal();
+    }
 }
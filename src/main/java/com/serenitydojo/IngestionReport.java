@@ -0,0 +1,49 @@
+package com.serenitydojo;
+
+public final class IngestionReport {
+    private final long lines;
+    private final long malformedLines;
+    private final long pricesApplied;
+    private final long batches;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    IngestionReport(long lines, long malformedLines, long pricesApplied, long batches, long bytes, long elapsedNanos) {
+        this.lines = lines;
+        this.malformedLines = malformedLines;
+        this.pricesApplied = pricesApplied;
+        this.batches = batches;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // number of lines read from the feed, not counting blank lines and comments
+    public long getLines() { return lines; }
+
+    // number of lines that could not be read as a fruit and a price
+    public long getMalformedLines() { return malformedLines; }
+
+    // number of prices written to the catalog, after repeated updates to the same fruit in a batch were combined
+    public long getPricesApplied() { return pricesApplied; }
+
+    // number of batches published to the catalog
+    public long getBatches() { return batches; }
+
+    public long getBytes() { return bytes; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public double getLinesPerSecond() {
+        return elapsedNanos == 0 ? 0 : lines * 1e9 / elapsedNanos;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d lines (%d malformed), %d prices applied in %d batches, %.0f lines/s",
+                lines, malformedLines, pricesApplied, batches, getLinesPerSecond());
+    }
+}
@@ -0,0 +1,108 @@
+package com.serenitydojo;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+// a copy of the metrics recorded by ShopMetrics at one moment
+public final class MetricsSnapshot {
+
+    static final MetricsSnapshot EMPTY = new MetricsSnapshot(emptyOperations());
+
+    private final Map<ShopMetrics.Operation, OperationSnapshot> operations;
+
+    MetricsSnapshot(Map<ShopMetrics.Operation, OperationSnapshot> operations) {
+        this.operations = Collections.unmodifiableMap(operations);
+    }
+
+    public OperationSnapshot getOperation(ShopMetrics.Operation operation) {
+        return operations.get(operation);
+    }
+
+    public Map<ShopMetrics.Operation, OperationSnapshot> getOperations() {
+        return operations;
+    }
+
+    // one line per operation, e.g. "GET_PRICE count=10 failures={} mean=52ns p50=47ns p99=223ns max=1279ns"
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<ShopMetrics.Operation, OperationSnapshot> operation : operations.entrySet()) {
+            text.append(operation.getKey()).append(' ').append(operation.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static Map<ShopMetrics.Operation, OperationSnapshot> emptyOperations() {
+        Map<ShopMetrics.Operation, OperationSnapshot> operations = new EnumMap<>(ShopMetrics.Operation.class);
+        for (ShopMetrics.Operation operation : ShopMetrics.Operation.values()) {
+            operations.put(operation, new OperationSnapshot(new long[ShopMetrics.Histogram.BUCKETS], 0,
+                    Collections.<String, Long>emptyMap()));
+        }
+        return operations;
+    }
+
+    // the count, failures and latencies of one operation
+    public static final class OperationSnapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final Map<String, Long> failures;
+
+        OperationSnapshot(long[] buckets, long totalNanos, Map<String, Long> failures) {
+            this.buckets = buckets;
+            this.totalNanos = totalNanos;
+            this.failures = failures;
+            long sum = 0;
+            for (long bucket : buckets) {
+                sum += bucket;
+            }
+            this.count = sum;
+        }
+
+        // number of times the operation ran, including failures
+        public long getCount() { return count; }
+
+        // number of failures, by the simple name of the exception class
+        public Map<String, Long> getFailures() { return failures; }
+
+        public long getFailureCount() {
+            long failureCount = 0;
+            for (long failuresOfType : failures.values()) {
+                failureCount += failuresOfType;
+            }
+            return failureCount;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        // method to get a latency percentile, e.g. getPercentileNanos(99) for p99
+        // the answer is the top of the histogram bucket it falls in, so it is at most 12.5% too high
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    return ShopMetrics.Histogram.highestValueIn(bucket);
+                }
+            }
+            return ShopMetrics.Histogram.highestValueIn(buckets.length - 1);
+        }
+
+        public long getMaxNanos() {
+            return getPercentileNanos(100);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d failures=%s mean=%.0fns p50=%dns p99=%dns max=%dns", count, failures,
+                    getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), getMaxNanos());
+        }
+    }
+}
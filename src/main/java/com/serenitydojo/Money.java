@@ -0,0 +1,40 @@
+package com.serenitydojo;
+
+// helpers for working with money as a whole number of cents held in a long
+// cents add up exactly, unlike doubles, and a long needs no allocation, unlike BigDecimal
+public final class Money {
+
+    private Money() {
+    }
+
+    // method to convert an amount in dollars, e.g. 5.50, to cents, rounding to the nearest cent
+    public static long toCents(double dollars) {
+        return Math.round(dollars * 100);
+    }
+
+    // method to convert an amount in cents back to dollars, e.g. for display
+    public static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    // method to work out the price of a quantity at a unit price, failing rather than overflowing
+    public static long times(long centsEach, long quantity) {
+        return Math.multiplyExact(centsEach, quantity);
+    }
+
+    // method to take a whole-number percentage off an amount
+    // the result is rounded to the nearest cent, with half a cent rounded up, e.g. 10% off 1005 cents is 905 cents
+    public static long discount(long cents, int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("A discount must be between 0 and 100 percent, not " + percent);
+        }
+        return Math.floorDiv(Math.multiplyExact(cents, 100 - percent) + 50, 100);
+    }
+
+    // method to format an amount in cents as dollars, e.g. "$5.50"
+    public static String format(long cents) {
+        String sign = cents < 0 ? "-" : "";
+        long absolute = Math.abs(cents);
+        return String.format("%s$%d.%02d", sign, absolute / 100, absolute % 100);
+    }
+}
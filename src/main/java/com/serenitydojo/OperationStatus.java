@@ -0,0 +1,20 @@
+package com.serenitydojo;
+
+// the outcome of one cart operation - each failure matches one of the exceptions thrown by the cart
+public enum OperationStatus {
+    OK,
+    // the fruit has no price in the catalog (FruitUnavailableException)
+    FRUIT_UNAVAILABLE,
+    // there isn't any of the fruit in the cart (ItemNotFoundException)
+    ITEM_NOT_FOUND,
+    // there is less of the fruit in the cart than was asked for (InsufficientQuantityException)
+    INSUFFICIENT_QUANTITY,
+    // there isn't enough unreserved stock of the fruit left in the catalog (see StockReservations)
+    OUT_OF_STOCK,
+    // the quantity asked for isn't more than zero
+    INVALID_QUANTITY;
+
+    public boolean isSuccess() {
+        return this == OK;
+    }
+}
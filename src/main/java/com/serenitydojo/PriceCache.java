@@ -0,0 +1,201 @@
+package com.serenitydojo;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// a bounded read-through cache in front of a slow price source
+// - a cached price is used until it is older than the time to live, then loaded again on the next lookup
+// - once a price is older than the refresh time it is still used, but a fresh copy is loaded in the background
+// - when several threads miss on the same fruit at once, only one of them loads it and the rest wait for that load
+// - when more fruits are cached than the maximum, the one that was looked up least recently is dropped
+// entries and loads in progress are kept in arrays indexed by Fruit.ordinal(), so a cache hit never allocates
+public class PriceCache implements PriceSource {
+
+    private final PriceSource source;
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final long refreshAfterMillis;
+    private final Executor refresher;
+    private final Clock clock;
+
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(Fruit.VALUES.length);
+    private final AtomicReferenceArray<CompletableFuture<Long>> loading =
+            new AtomicReferenceArray<>(Fruit.VALUES.length);
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    // create a cache for every fruit that keeps prices for 5 minutes and refreshes them after 4
+    public PriceCache(PriceSource source) {
+        this(source, Fruit.VALUES.length, Duration.ofMinutes(5), Duration.ofMinutes(4), ForkJoinPool.commonPool(),
+                Clock.systemUTC());
+    }
+
+    // refreshAfter should be shorter than timeToLive, otherwise prices are never refreshed in the background
+    public PriceCache(PriceSource source, int maxEntries, Duration timeToLive, Duration refreshAfter,
+                      Executor refresher, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must be able to hold at least one price");
+        }
+        this.source = source;
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        this.refreshAfterMillis = refreshAfter.toMillis();
+        this.refresher = refresher;
+        this.clock = clock;
+    }
+
+    // method to get the price of a fruit in cents, loading it from the source if it isn't cached or has expired
+    @Override
+    public long loadPriceInCents(Fruit fruit) {
+        long now = clock.millis();
+        Entry entry = entries.get(fruit.ordinal());
+        if (entry != null && now - entry.loadedAt < timeToLiveMillis) {
+            hits.increment();
+            entry.touch(now);
+            if (now - entry.loadedAt >= refreshAfterMillis) {
+                refreshAhead(fruit);
+            }
+            return entry.priceInCents;
+        }
+        return awaitLoad(fruit);
+    }
+
+    // method to drop a fruit's price, so the next lookup loads it from the source again
+    public void invalidate(Fruit fruit) {
+        if (entries.getAndSet(fruit.ordinal(), null) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    // number of fruits whose prices are currently cached
+    public int size() {
+        return size.get();
+    }
+
+    // number of lookups answered from the cache
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    // number of times a price was loaded from the source, including refreshes
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    // number of loads that were started in the background to refresh a price that was still being used
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    // miss: join the load already in progress for this fruit, or start one on this thread
+    private long awaitLoad(Fruit fruit) {
+        CompletableFuture<Long> load = new CompletableFuture<>();
+        CompletableFuture<Long> inProgress = startLoad(fruit, load);
+        if (inProgress == null) {
+            load(fruit, load);
+            inProgress = load;
+        }
+        try {
+            return inProgress.join();
+        } catch (CompletionException e) {
+            // rethrow what the source threw, e.g. FruitUnavailableException, rather than the wrapper
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // the price is still usable but getting old, so load a fresh copy without making anyone wait for it
+    private void refreshAhead(Fruit fruit) {
+        CompletableFuture<Long> load = new CompletableFuture<>();
+        if (startLoad(fruit, load) == null) {
+            refreshes.increment();
+            try {
+                refresher.execute(() -> load(fruit, load));
+            } catch (RuntimeException e) {
+                // the refresher couldn't take the work - give up this time and try again on a later lookup
+                loading.set(fruit.ordinal(), null);
+                load.completeExceptionally(e);
+            }
+        }
+    }
+
+    // returns the load already in progress for the fruit, or null if the caller's load was registered and
+    // the caller should now run it
+    private CompletableFuture<Long> startLoad(Fruit fruit, CompletableFuture<Long> load) {
+        while (true) {
+            CompletableFuture<Long> inProgress = loading.get(fruit.ordinal());
+            if (inProgress != null) {
+                return inProgress;
+            }
+            if (loading.compareAndSet(fruit.ordinal(), null, load)) {
+                return null;
+            }
+        }
+    }
+
+    private void load(Fruit fruit, CompletableFuture<Long> load) {
+        try {
+            loads.increment();
+            long priceInCents = source.loadPriceInCents(fruit);
+            long now = clock.millis();
+            // cache the price before the load is marked finished, so a miss that comes after it finds the entry
+            if (entries.getAndSet(fruit.ordinal(), new Entry(priceInCents, now)) == null
+                    && size.incrementAndGet() > maxEntries) {
+                evictLeastRecentlyRead(fruit);
+            }
+            loading.set(fruit.ordinal(), null);
+            load.complete(priceInCents);
+        } catch (Throwable e) {
+            // a failed refresh leaves the old price in place until it expires
+            loading.set(fruit.ordinal(), null);
+            load.completeExceptionally(e);
+        }
+    }
+
+    // there are only a handful of fruits, so finding the least recently read one is a short scan
+    private void evictLeastRecentlyRead(Fruit justLoaded) {
+        int oldest = -1;
+        long oldestRead = Long.MAX_VALUE;
+        for (int ordinal = 0; ordinal < Fruit.VALUES.length; ordinal++) {
+            Entry entry = entries.get(ordinal);
+            if (ordinal != justLoaded.ordinal() && entry != null && entry.lastRead < oldestRead) {
+                oldest = ordinal;
+                oldestRead = entry.lastRead;
+            }
+        }
+        if (oldest >= 0 && entries.getAndSet(oldest, null) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    private static final class Entry {
+        final long priceInCents;
+        final long loadedAt;
+        volatile long lastRead;
+
+        Entry(long priceInCents, long loadedAt) {
+            this.priceInCents = priceInCents;
+            this.loadedAt = loadedAt;
+            this.lastRead = loadedAt;
+        }
+
+        // only write when the time has moved on, so busy fruits aren't written on every lookup
+        void touch(long now) {
+            if (lastRead != now) {
+                lastRead = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.serenitydojo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// reads a supplier price feed of lines such as "APPLE,4.25" and applies the prices to a catalog as it goes
+// the feed is read through a fixed-size buffer and parsed byte by byte, so memory use is the same however big the feed
+// is - the next chunk is only read once the current batch has been applied, which keeps the feed from running ahead
+// of the catalog
+//
+// fruit names are matched ignoring case, prices are in dollars with up to two decimal places and an optional "$",
+// blank lines and lines starting with "#" are skipped, and anything else is counted as malformed
+public class PriceFeedIngester {
+
+    private static final int DEFAULT_BATCH_SIZE = 1_000;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // longer lines than this can't be a fruit and a price, so they are skipped as malformed
+    private static final int MAX_LINE_LENGTH = 128;
+    // 15 digits of cents is well inside a long
+    private static final int MAX_PRICE_DIGITS = 15;
+
+    private static final byte[][] NAMES = new byte[Fruit.VALUES.length][];
+
+    static {
+        for (Fruit fruit : Fruit.VALUES) {
+            NAMES[fruit.ordinal()] = fruit.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final Catalog catalog;
+    private final int batchSize;
+    private final int bufferSize;
+
+    public PriceFeedIngester(Catalog catalog) {
+        this(catalog, DEFAULT_BATCH_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    // batchSize is the number of feed lines combined into each update of the catalog
+    public PriceFeedIngester(Catalog catalog, int batchSize, int bufferSize) {
+        if (batchSize < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Batch and buffer sizes must be at least 1");
+        }
+        this.catalog = catalog;
+        this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+    }
+
+    // method to read a whole feed and apply its prices to the catalog
+    // the last price in the feed for each fruit is the one the catalog ends up with
+    public IngestionReport ingest(ReadableByteChannel feed) throws IOException {
+        long start = System.nanoTime();
+        Batch batch = new Batch();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineLength = 0;
+        boolean lineTooLong = false;
+        long bytes = 0;
+
+        int read;
+        while ((read = feed.read(buffer)) != -1) {
+            bytes += read;
+            byte[] chunk = buffer.array();
+            for (int i = 0; i < buffer.position(); i++) {
+                byte next = chunk[i];
+                if (next == '\n') {
+                    if (lineTooLong) {
+                        batch.malformed();
+                    } else {
+                        parseLine(line, lineLength, batch);
+                    }
+                    lineLength = 0;
+                    lineTooLong = false;
+                } else if (lineLength < MAX_LINE_LENGTH) {
+                    line[lineLength++] = next;
+                } else {
+                    lineTooLong = true;
+                }
+            }
+            buffer.clear();
+        }
+        // the last line may not end with a new line
+        if (lineTooLong) {
+            batch.malformed();
+        } else {
+            parseLine(line, lineLength, batch);
+        }
+        batch.apply();
+        return new IngestionReport(batch.lines, batch.malformedLines, batch.pricesApplied, batch.batches, bytes,
+                System.nanoTime() - start);
+    }
+
+    private void parseLine(byte[] line, int length, Batch batch) {
+        int start = 0;
+        int end = length;
+        // trim spaces, tabs and the carriage return of a Windows line ending
+        while (start < end && isSpace(line[start])) {
+            start++;
+        }
+        while (end > start && isSpace(line[end - 1])) {
+            end--;
+        }
+        if (start == end || line[start] == '#') {
+            return;
+        }
+        int comma = start;
+        while (comma < end && line[comma] != ',') {
+            comma++;
+        }
+        Fruit fruit = comma < end ? fruitNamed(line, start, comma) : null;
+        long price = fruit == null ? -1 : priceInCents(line, comma + 1, end);
+        if (price < 0) {
+            batch.malformed();
+        } else {
+            batch.add(fruit, price);
+        }
+    }
+
+    // find the fruit with the given name, ignoring case and surrounding spaces, or null if there isn't one
+    private static Fruit fruitNamed(byte[] line, int start, int end) {
+        while (end > start && isSpace(line[end - 1])) {
+            end--;
+        }
+        for (Fruit fruit : Fruit.VALUES) {
+            byte[] name = NAMES[fruit.ordinal()];
+            if (name.length != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length && toUpperCase(line[start + i]) == name[i]) {
+                i++;
+            }
+            if (i == name.length) {
+                return fruit;
+            }
+        }
+        return null;
+    }
+
+    // read a price such as "4", "4.5", "$4.50" as cents, or return -1 if it isn't a valid price
+    private static long priceInCents(byte[] line, int start, int end) {
+        while (start < end && isSpace(line[start])) {
+            start++;
+        }
+        if (start < end && line[start] == '$') {
+            start++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            byte next = line[i];
+            if (next == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (next >= '0' && next <= '9' && decimals < 2 && digits < MAX_PRICE_DIGITS) {
+                cents = cents * 10 + (next - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        // scale up to whole cents, e.g. "4" and "4.5" both need two more decimal places or one
+        for (int scale = Math.max(decimals, 0); scale < 2; scale++) {
+            cents *= 10;
+        }
+        return cents;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static byte toUpperCase(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b;
+    }
+
+    // the prices read since the last batch was applied, combined so each fruit keeps only its latest price
+    private final class Batch {
+        final long[] prices = new long[Fruit.VALUES.length];
+        long fruits;
+        int linesInBatch;
+        long lines;
+        long malformedLines;
+        long pricesApplied;
+        long batches;
+
+        void add(Fruit fruit, long priceInCents) {
+            prices[fruit.ordinal()] = priceInCents;
+            fruits |= fruit.bit();
+            lines++;
+            if (++linesInBatch >= batchSize) {
+                apply();
+            }
+        }
+
+        void malformed() {
+            lines++;
+            malformedLines++;
+        }
+
+        void apply() {
+            if (fruits != 0) {
+                catalog.updatePricesInCents(prices, fruits);
+                pricesApplied += Long.bitCount(fruits);
+                batches++;
+            }
+            fruits = 0;
+            linesInBatch = 0;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.serenitydojo;
+
+// somewhere the shop's prices come from, such as the pricing service
+// a catalog backed by a price source looks prices up through it - see Catalog.backedBy
+public interface PriceSource {
+
+    // load the current price of a fruit in cents
+    // throws FruitUnavailableException if the fruit has no price
+    long loadPriceInCents(Fruit fruit);
+}
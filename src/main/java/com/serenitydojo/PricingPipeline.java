@@ -0,0 +1,148 @@
+package com.serenitydojo;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// a set of pricing rules compiled into flat arrays, so pricing a cart is a plain loop with no lookups or lambdas
+// for each fruit in the cart the cheapest of its line rules (tier discounts and multi-buys) is used, then the
+// biggest bulk discount the cart qualifies for is taken off the subtotal
+public final class PricingPipeline {
+
+    // the shop's usual rule: 10% off when you buy 5 kilos or more of fruit
+    public static final PricingPipeline STANDARD = compile(PricingRule.bulkDiscount(5, 10));
+
+    private static final int TIER_DISCOUNT = 0;
+    private static final int MULTI_BUY = 1;
+
+    // line rules grouped by fruit: the rules for a fruit are at lineStart[ordinal] up to lineStart[ordinal + 1]
+    private final int[] lineStart;
+    private final int[] lineKind;
+    private final int[] lineThreshold;
+    private final int[] lineAmount;
+    private final long[] lineFrom;
+    private final long[] lineUntil;
+
+    // whole-cart rules
+    private final int[] bulkThreshold;
+    private final int[] bulkPercent;
+    private final long[] bulkFrom;
+    private final long[] bulkUntil;
+
+    // the clock is only read when at least one rule has a time window
+    private final Clock clock;
+    private final boolean timed;
+
+    private PricingPipeline(List<PricingRule> rules, Clock clock) {
+        List<PricingRule> lineRules = new ArrayList<>();
+        List<PricingRule> bulkRules = new ArrayList<>();
+        boolean anyTimed = false;
+        for (PricingRule rule : rules) {
+            (rule.fruit == null ? bulkRules : lineRules).add(rule);
+            anyTimed |= rule.fromMillis != Long.MIN_VALUE || rule.untilMillis != Long.MAX_VALUE;
+        }
+        // sort the line rules by fruit so each fruit's rules sit next to each other
+        lineRules.sort(Comparator.comparingInt(rule -> rule.fruit.ordinal()));
+
+        lineStart = new int[Fruit.VALUES.length + 1];
+        lineKind = new int[lineRules.size()];
+        lineThreshold = new int[lineRules.size()];
+        lineAmount = new int[lineRules.size()];
+        lineFrom = new long[lineRules.size()];
+        lineUntil = new long[lineRules.size()];
+        for (int i = 0; i < lineRules.size(); i++) {
+            PricingRule rule = lineRules.get(i);
+            lineKind[i] = rule.kind == PricingRule.Kind.MULTI_BUY ? MULTI_BUY : TIER_DISCOUNT;
+            lineThreshold[i] = rule.threshold;
+            lineAmount[i] = rule.amount;
+            lineFrom[i] = rule.fromMillis;
+            lineUntil[i] = rule.untilMillis;
+            lineStart[rule.fruit.ordinal() + 1]++;
+        }
+        // turn the per-fruit counts into start offsets
+        for (int ordinal = 0; ordinal < Fruit.VALUES.length; ordinal++) {
+            lineStart[ordinal + 1] += lineStart[ordinal];
+        }
+
+        bulkThreshold = new int[bulkRules.size()];
+        bulkPercent = new int[bulkRules.size()];
+        bulkFrom = new long[bulkRules.size()];
+        bulkUntil = new long[bulkRules.size()];
+        for (int i = 0; i < bulkRules.size(); i++) {
+            PricingRule rule = bulkRules.get(i);
+            bulkThreshold[i] = rule.threshold;
+            bulkPercent[i] = rule.amount;
+            bulkFrom[i] = rule.fromMillis;
+            bulkUntil[i] = rule.untilMillis;
+        }
+        this.clock = clock;
+        this.timed = anyTimed;
+    }
+
+    // method to compile a set of rules, using the system clock for any time windows
+    public static PricingPipeline compile(PricingRule... rules) {
+        return compile(Arrays.asList(rules), Clock.systemUTC());
+    }
+
+    // method to compile a set of rules, using the given clock for any time windows
+    public static PricingPipeline compile(List<PricingRule> rules, Clock clock) {
+        return new PricingPipeline(rules, clock);
+    }
+
+    // true if the pipeline has no per-fruit rules, so a cart can be priced from its running subtotal
+    boolean isBulkOnly() {
+        return lineKind.length == 0;
+    }
+
+    // the time to check rule windows against - only reads the clock if some rule has a window
+    long now() {
+        return timed ? clock.millis() : 0;
+    }
+
+    // method to work out the price of a whole cart in cents
+    long price(int[] quantities, long fruitsInCart, Catalog.Snapshot prices, long now) {
+        long subtotal = 0;
+        long totalQuantity = 0;
+        // loop over the bits of the fruits that are in the cart
+        for (long remaining = fruitsInCart; remaining != 0; remaining &= remaining - 1) {
+            int ordinal = Long.numberOfTrailingZeros(remaining);
+            int quantity = quantities[ordinal];
+            long unitPrice = prices.priceInCentsOf(Fruit.VALUES[ordinal]);
+            long linePrice = Money.times(unitPrice, quantity);
+            // use the cheapest of the rules for this fruit
+            for (int rule = lineStart[ordinal]; rule < lineStart[ordinal + 1]; rule++) {
+                if (now < lineFrom[rule] || now >= lineUntil[rule]) {
+                    continue;
+                }
+                long candidate;
+                if (lineKind[rule] == MULTI_BUY) {
+                    // pay for lineAmount kilos out of every lineThreshold kilos, plus any kilos left over
+                    long paidFor = (long) (quantity / lineThreshold[rule]) * lineAmount[rule]
+                            + quantity % lineThreshold[rule];
+                    candidate = Money.times(unitPrice, paidFor);
+                } else if (quantity >= lineThreshold[rule]) {
+                    candidate = Money.discount(Money.times(unitPrice, quantity), lineAmount[rule]);
+                } else {
+                    continue;
+                }
+                linePrice = Math.min(linePrice, candidate);
+            }
+            subtotal += linePrice;
+            totalQuantity += quantity;
+        }
+        return applyBulkDiscount(subtotal, totalQuantity, now);
+    }
+
+    // method to take the biggest bulk discount the cart qualifies for off its subtotal
+    long applyBulkDiscount(long subtotal, long totalQuantity, long now) {
+        int percent = 0;
+        for (int rule = 0; rule < bulkPercent.length; rule++) {
+            if (totalQuantity >= bulkThreshold[rule] && now >= bulkFrom[rule] && now < bulkUntil[rule]) {
+                percent = Math.max(percent, bulkPercent[rule]);
+            }
+        }
+        return percent == 0 ? subtotal : Money.discount(subtotal, percent);
+    }
+}
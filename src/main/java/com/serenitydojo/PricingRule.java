@@ -0,0 +1,75 @@
+package com.serenitydojo;
+
+import java.time.Instant;
+import java.util.Objects;
+
+// one promotion, such as 10% off 5 kg or more - rules are compiled into a PricingPipeline before they are used
+public final class PricingRule {
+
+    enum Kind { BULK_DISCOUNT, TIER_DISCOUNT, MULTI_BUY }
+
+    final Kind kind;
+    // the fruit the rule applies to, or null for a rule on the whole cart
+    final Fruit fruit;
+    // minimum kilos for a discount, or the kilos bought for a multi-buy
+    final int threshold;
+    // percentage off for a discount, or the kilos paid for in a multi-buy
+    final int amount;
+    // the rule only applies from this time (inclusive) until this time (exclusive), in epoch milliseconds
+    final long fromMillis;
+    final long untilMillis;
+
+    private PricingRule(Kind kind, Fruit fruit, int threshold, int amount, long fromMillis, long untilMillis) {
+        this.kind = kind;
+        this.fruit = fruit;
+        this.threshold = threshold;
+        this.amount = amount;
+        this.fromMillis = fromMillis;
+        this.untilMillis = untilMillis;
+    }
+
+    // a percentage off the whole cart when it holds at least minimumKilos of fruit in total
+    public static PricingRule bulkDiscount(int minimumKilos, int percent) {
+        checkDiscount(minimumKilos, percent);
+        return new PricingRule(Kind.BULK_DISCOUNT, null, minimumKilos, percent, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // a percentage off one fruit's line when the cart holds at least minimumKilos of that fruit
+    public static PricingRule tierDiscount(Fruit fruit, int minimumKilos, int percent) {
+        checkDiscount(minimumKilos, percent);
+        return new PricingRule(Kind.TIER_DISCOUNT, Objects.requireNonNull(fruit), minimumKilos, percent,
+                Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // buy a number of kilos of a fruit and only pay for some of them, e.g. multiBuy(PEAR, 3, 2) for 3 for the price of 2
+    public static PricingRule multiBuy(Fruit fruit, int kilosBought, int kilosPaidFor) {
+        if (kilosBought < 1 || kilosPaidFor < 0 || kilosPaidFor >= kilosBought) {
+            throw new IllegalArgumentException("A multi-buy must pay for fewer kilos than are bought, not "
+                    + kilosPaidFor + " of " + kilosBought);
+        }
+        return new PricingRule(Kind.MULTI_BUY, Objects.requireNonNull(fruit), kilosBought, kilosPaidFor,
+                Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // a copy of this rule that only applies from one time (inclusive) until another (exclusive)
+    public PricingRule between(Instant from, Instant until) {
+        if (!from.isBefore(until)) {
+            throw new IllegalArgumentException("A promotion must start before it ends");
+        }
+        return new PricingRule(kind, fruit, threshold, amount, from.toEpochMilli(), until.toEpochMilli());
+    }
+
+    private static void checkDiscount(int minimumKilos, int percent) {
+        if (minimumKilos < 0) {
+            throw new IllegalArgumentException("The minimum quantity for a discount cannot be negative");
+        }
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("A discount must be between 0 and 100 percent, not " + percent);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind + (fruit == null ? "" : " " + fruit) + " " + threshold + "/" + amount;
+    }
+}
@@ -0,0 +1,32 @@
+package com.serenitydojo;
+
+public final class RepricingResult {
+    private final long cartsRepriced;
+    private final long cartsSkipped;
+    private final long priceVersion;
+    private final long elapsedNanos;
+
+    RepricingResult(long cartsRepriced, long cartsSkipped, long priceVersion, long elapsedNanos) {
+        this.cartsRepriced = cartsRepriced;
+        this.cartsSkipped = cartsSkipped;
+        this.priceVersion = priceVersion;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // number of carts holding at least one of the changed fruits, whose totals were worked out again
+    public long getCartsRepriced() { return cartsRepriced; }
+
+    // number of carts holding none of the changed fruits, which were left alone
+    public long getCartsSkipped() { return cartsSkipped; }
+
+    // the catalog's price version with the new prices
+    public long getPriceVersion() { return priceVersion; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString() {
+        return String.format("repriced %d carts, skipped %d, in %.1f ms", cartsRepriced, cartsSkipped,
+                elapsedNanos / 1e6);
+    }
+}
@@ -0,0 +1,320 @@
+package com.serenitydojo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// an append-only log of cart and price changes, so open carts survive a crash
+// recording a change only copies it into a buffer - the buffer is written and synced to disk in batches, either every
+// few milliseconds by a background thread or when a caller needs its change to be durable, so one fsync covers every
+// change recorded since the last one
+//
+// every record is 24 bytes (big-endian): long cart id, long quantity or price in cents, byte type,
+// byte fruit ordinal, 2 unused bytes, int CRC32 of the first 20 bytes
+public class ShopJournal implements Closeable {
+
+    private static final int RECORD_SIZE = 24;
+    private static final int CHECKED_BYTES = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte ADD_ITEM = 1;
+    private static final byte REMOVE_ITEM = 2;
+    private static final byte UPDATE_PRICE = 3;
+
+    private final Path file;
+    private FileChannel channel;
+
+    // appenders fill pending while the flush writes out the other buffer
+    // lock order: ioLock before appendLock
+    private final Object appendLock = new Object();
+    private final Object ioLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    // sequence number of the last record appended, and of the last record known to be on disk
+    private long appended;
+    private volatile long durable;
+    private boolean closed;
+    // the first error from the background flush, reported to the next caller
+    private volatile IOException flushFailure;
+
+    private final ScheduledExecutorService flusher;
+
+    private ShopJournal(Path file, FileChannel channel, long flushIntervalMillis) {
+        this.file = file;
+        this.channel = channel;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "shop-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // method to open a journal for appending, syncing it to disk every 5 milliseconds
+    public static ShopJournal open(Path file) throws IOException {
+        return open(file, 5);
+    }
+
+    // method to open a journal for appending, syncing it to disk at the given interval
+    // anything after the last complete record (left by a crash part way through a write) is cut off first
+    public static ShopJournal open(Path file, long flushIntervalMillis) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long validLength = scan(channel, null, null);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return new ShopJournal(file, channel, flushIntervalMillis);
+    }
+
+    // method to rebuild the open carts from a journal, applying its price updates to the given catalog
+    // returns the carts that still hold fruit, by cart id, in the order they were first seen
+    public static Map<Long, ShoppingCart> replay(Path file, Catalog catalog) throws IOException {
+        Map<Long, ShoppingCart> carts = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                scan(channel, carts, catalog);
+            }
+        }
+        carts.values().removeIf(cart -> cart.getCartItems().isEmpty());
+        return carts;
+    }
+
+    // methods to record changes - each returns a sequence number that can be passed to awaitDurable
+    public long recordAddItem(long cartId, Fruit fruit, int quantity) {
+        return append(ADD_ITEM, cartId, fruit, quantity);
+    }
+
+    public long recordRemoveItem(long cartId, Fruit fruit, int quantity) {
+        return append(REMOVE_ITEM, cartId, fruit, quantity);
+    }
+
+    public long recordPriceUpdate(Fruit fruit, long priceInCents) {
+        return append(UPDATE_PRICE, 0, fruit, priceInCents);
+    }
+
+    // method to wait until a recorded change is safely on disk
+    // if it isn't yet, this thread writes and syncs everything recorded so far, for itself and anyone else waiting
+    public void awaitDurable(long sequence) throws IOException {
+        if (durable < sequence) {
+            flush();
+        }
+    }
+
+    // method to rewrite the journal as just the current state, so it doesn't grow forever
+    // nothing can be recorded while the journal is rewritten, so no change can end up both in the rewritten state
+    // and after it - the carts and catalog must include every change recorded so far, and must not change until
+    // this returns, so call it while holding whatever locks the callers that change carts and record them use
+    public void compact(Map<Long, ShoppingCart> carts, Catalog catalog) throws IOException {
+        synchronized (ioLock) {
+            // holding appendLock blocks recording until the rewritten journal is in place
+            synchronized (appendLock) {
+                if (closed) {
+                    throw new IllegalStateException("The journal has been closed");
+                }
+                flush();
+                Catalog.Snapshot snapshot = catalog.snapshot();
+                Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+                try (FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+                    CRC32 checksum = new CRC32();
+                    for (Fruit fruit : Fruit.VALUES) {
+                        if (snapshot.hasPrice(fruit)) {
+                            writeRecord(compacted, buffer, scratch, checksum, UPDATE_PRICE, 0, fruit,
+                                    snapshot.prices[fruit.ordinal()]);
+                        }
+                    }
+                    for (Map.Entry<Long, ShoppingCart> cart : carts.entrySet()) {
+                        for (Fruit fruit : Fruit.VALUES) {
+                            int quantity = cart.getValue().getItemQuantity(fruit);
+                            if (quantity > 0) {
+                                writeRecord(compacted, buffer, scratch, checksum, ADD_ITEM, cart.getKey(), fruit,
+                                        quantity);
+                            }
+                        }
+                    }
+                    drain(compacted, buffer);
+                    compacted.force(true);
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(temporary);
+                    throw e;
+                }
+                channel.close();
+                try {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    // reopen whichever journal is now in place - the old one if the move failed
+                    channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+                    channel.position(channel.size());
+                }
+            }
+        }
+    }
+
+    // method to write and sync everything recorded so far, then stop the background thread
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        synchronized (ioLock) {
+            flush();
+            synchronized (appendLock) {
+                closed = true;
+            }
+            channel.close();
+        }
+    }
+
+    private long append(byte type, long cartId, Fruit fruit, long amount) {
+        while (true) {
+            synchronized (appendLock) {
+                if (closed) {
+                    throw new IllegalStateException("The journal has been closed");
+                }
+                if (pending.remaining() >= RECORD_SIZE) {
+                    encode(record, crc, type, cartId, fruit, amount);
+                    pending.put(record);
+                    return ++appended;
+                }
+            }
+            // the buffer is full, so write it out before trying again
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // write out and sync everything appended so far - whoever holds ioLock does the work for every waiting thread
+    private void flush() throws IOException {
+        synchronized (ioLock) {
+            if (flushFailure != null) {
+                throw flushFailure;
+            }
+            long upTo;
+            synchronized (appendLock) {
+                if (closed || durable == appended) {
+                    return;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                upTo = appended;
+            }
+            try {
+                drain(channel, writing);
+                channel.force(false);
+            } catch (IOException e) {
+                flushFailure = e;
+                throw e;
+            } finally {
+                writing.clear();
+            }
+            durable = upTo;
+        }
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // kept in flushFailure and reported to the next caller that needs durability
+        }
+    }
+
+    private static void encode(ByteBuffer record, CRC32 crc, byte type, long cartId, Fruit fruit, long amount) {
+        record.clear();
+        record.putLong(cartId).putLong(amount).put(type).put((byte) fruit.ordinal()).putShort((short) 0);
+        crc.reset();
+        crc.update(record.array(), 0, CHECKED_BYTES);
+        record.putInt((int) crc.getValue());
+        record.flip();
+    }
+
+    private static void writeRecord(FileChannel target, ByteBuffer buffer, ByteBuffer record, CRC32 checksum, byte type,
+                             long cartId, Fruit fruit, long amount) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            drain(target, buffer);
+        }
+        encode(record, checksum, type, cartId, fruit, amount);
+        buffer.put(record);
+    }
+
+    // write out whatever has been put in the buffer and leave it empty, ready to fill again
+    private static void drain(FileChannel target, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // read every complete, undamaged record from the start of the channel, applying them to the carts and catalog
+    // if given, and return the length of the good part of the file
+    private static long scan(FileChannel channel, Map<Long, ShoppingCart> carts, Catalog catalog) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        channel.position(0);
+        while (channel.read(buffer) > 0 || buffer.position() >= RECORD_SIZE) {
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int start = buffer.position();
+                crc.reset();
+                crc.update(buffer.array(), start, CHECKED_BYTES);
+                long cartId = buffer.getLong();
+                long amount = buffer.getLong();
+                byte type = buffer.get();
+                int ordinal = buffer.get();
+                buffer.getShort();
+                int checksum = buffer.getInt();
+                if (checksum != (int) crc.getValue() || ordinal < 0 || ordinal >= Fruit.VALUES.length) {
+                    // a damaged record means a write was cut off - nothing after it can be trusted
+                    return position;
+                }
+                if (carts != null) {
+                    apply(carts, catalog, type, cartId, Fruit.VALUES[ordinal], amount);
+                }
+                position += RECORD_SIZE;
+            }
+            buffer.compact();
+        }
+        return position;
+    }
+
+    private static void apply(Map<Long, ShoppingCart> carts, Catalog catalog, byte type, long cartId, Fruit fruit,
+                              long amount) {
+        switch (type) {
+            case ADD_ITEM:
+                carts.computeIfAbsent(cartId, id -> new ShoppingCart()).restoreItem(fruit, (int) amount);
+                break;
+            case REMOVE_ITEM:
+                ShoppingCart cart = carts.get(cartId);
+                if (cart != null) {
+                    cart.tryRemoveItem(fruit, (int) amount);
+                }
+                break;
+            case UPDATE_PRICE:
+                catalog.updatePriceInCentsOf(fruit, amount);
+                break;
+            default:
+                break;
+        }
+    }
+}
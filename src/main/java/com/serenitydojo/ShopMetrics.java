@@ -0,0 +1,173 @@
+package com.serenitydojo;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// built-in counters and latency histograms for the catalog and cart operations
+// metrics are off until enable() is called - while they are off each operation only pays for one volatile read
+// while they are on, each thread records into its own stripe of the histograms so threads don't fight over counters
+public final class ShopMetrics {
+
+    // the operations that are measured
+    public enum Operation { GET_PRICE, GET_AVAILABLE_FRUITS, ADD_ITEM, REMOVE_ITEM, GET_TOTAL_PRICE }
+
+    // returned by start() while metrics are off, so the matching record call knows to do nothing
+    private static final long DISABLED = Long.MIN_VALUE;
+
+    private static volatile boolean enabled;
+    private static volatile Recorder recorder;
+
+    private ShopMetrics() {
+    }
+
+    // method to start recording metrics, carrying on from any already recorded
+    public static synchronized void enable() {
+        if (recorder == null) {
+            recorder = new Recorder();
+        }
+        enabled = true;
+    }
+
+    // method to stop recording metrics - what was recorded so far can still be read with snapshot()
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // method to throw away everything recorded so far
+    public static synchronized void reset() {
+        if (recorder != null) {
+            recorder = new Recorder();
+        }
+    }
+
+    // method to get a copy of everything recorded so far
+    public static MetricsSnapshot snapshot() {
+        Recorder current = recorder;
+        return current == null ? MetricsSnapshot.EMPTY : current.snapshot();
+    }
+
+    // call at the start of an operation, and pass the result to success() or failure() at the end
+    static long start() {
+        return enabled ? System.nanoTime() : DISABLED;
+    }
+
+    static void success(Operation operation, long start) {
+        if (start != DISABLED) {
+            recorder.record(operation, System.nanoTime() - start);
+        }
+    }
+
+    static void failure(Operation operation, Throwable failure, long start) {
+        if (start != DISABLED) {
+            Recorder current = recorder;
+            current.record(operation, System.nanoTime() - start);
+            current.recordFailure(operation, failure.getClass());
+        }
+    }
+
+    // the histograms for every operation
+    private static final class Recorder {
+        final Histogram[] histograms = new Histogram[Operation.values().length];
+        final Map<Operation, ConcurrentHashMap<Class<?>, LongAdder>> failures = new EnumMap<>(Operation.class);
+
+        Recorder() {
+            for (Operation operation : Operation.values()) {
+                histograms[operation.ordinal()] = new Histogram();
+                failures.put(operation, new ConcurrentHashMap<>());
+            }
+        }
+
+        void record(Operation operation, long nanos) {
+            histograms[operation.ordinal()].record(nanos);
+        }
+
+        void recordFailure(Operation operation, Class<?> type) {
+            failures.get(operation).computeIfAbsent(type, key -> new LongAdder()).increment();
+        }
+
+        MetricsSnapshot snapshot() {
+            Map<Operation, MetricsSnapshot.OperationSnapshot> operations = new EnumMap<>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                Map<String, Long> failureCounts = new HashMap<>();
+                failures.get(operation).forEach((type, count) -> failureCounts.put(type.getSimpleName(), count.sum()));
+                operations.put(operation, histograms[operation.ordinal()]
+                        .snapshot(Collections.unmodifiableMap(failureCounts)));
+            }
+            return new MetricsSnapshot(operations);
+        }
+    }
+
+    // a log-linear latency histogram in the style of HdrHistogram: every power of two of nanoseconds is split into
+    // 8 buckets, so any recorded value is within 12.5% of the true latency
+    // each stripe has its own row of buckets, plus a slot at the end for the total nanoseconds
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // anything over 2^40 ns (about 18 minutes) goes in the last bucket
+        private static final int MAX_EXPONENT = 40;
+        static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+        private static final int ROW = BUCKETS + 1;
+        private static final int STRIPES = stripes();
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * ROW);
+
+        void record(long nanos) {
+            int row = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * ROW;
+            cells.incrementAndGet(row + bucketOf(nanos));
+            cells.addAndGet(row + BUCKETS, nanos);
+        }
+
+        MetricsSnapshot.OperationSnapshot snapshot(Map<String, Long> failures) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    counts[bucket] += cells.get(stripe * ROW + bucket);
+                }
+                total += cells.get(stripe * ROW + BUCKETS);
+            }
+            return new MetricsSnapshot.OperationSnapshot(counts, total, failures);
+        }
+
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) Math.max(nanos, 0);
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+            int subBucket = (int) (Math.min(nanos >>> (exponent - SUB_BUCKET_BITS), 2 * SUB_BUCKETS - 1)
+                    & (SUB_BUCKETS - 1));
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        // the highest latency that goes in a bucket
+        static long highestValueIn(int bucket) {
+            return bucket + 1 >= BUCKETS ? Long.MAX_VALUE : lowestValueIn(bucket + 1) - 1;
+        }
+
+        private static long lowestValueIn(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        // enough stripes for every processor to usually have its own, as a power of two no bigger than 16
+        private static int stripes() {
+            int stripes = 1;
+            while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) {
+                stripes <<= 1;
+            }
+            return stripes;
+        }
+    }
+}
@@ -1,104 +1,331 @@
 package com.serenitydojo;
 
-import org.assertj.core.data.MapEntry;
-
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 public class ShoppingCart {
 
-    // map of fruits and associated quantities that make up our cart
-    private final Map<Fruit, Integer> items;
+    // quantities of each fruit that make up our cart, indexed by Fruit.ordinal()
+    // using a primitive array means adding and removing items never boxes an Integer
+    private final int[] items;
+
+    // bitset with one bit per fruit that is currently in the cart
+    private long fruitsInCart;
+
+    // running total of the quantities in the cart, kept up to date by addItem and removeItem
+    private int totalQuantity;
+
+    // running total price in cents before discount, valid only for the catalog and price version it was worked out
+    // against - when either changes the subtotal is worked out again from scratch on the next getTotalPrice
+    private long subtotal;
+    private Catalog pricedWith;
+    private long pricedAtVersion;
 
-    // constructor to create the cart as a HashMap
+    // how much of each fruit the cart has reserved through StockReservations, indexed by Fruit.ordinal()
+    // kept with the cart so it survives being packed off the heap, and null until the first reservation
+    private int[] reserved;
+
+    // the promotions used to price the cart
+    private final PricingPipeline pricing;
+
+    // constructor to create an empty cart with the shop's standard pricing
     public ShoppingCart() {
-        this.items = new HashMap<>();
+        this(PricingPipeline.STANDARD);
+    }
+
+    // constructor to create an empty cart priced with a different set of promotions
+    public ShoppingCart(PricingPipeline pricing) {
+        this.items = new int[Fruit.VALUES.length];
+        this.pricing = pricing;
     }
 
     // method to add items to the cart
     public void addItem(Fruit fruit, int quantity, Catalog catalog) throws FruitUnavailableException {
-        // check if the fruit is available in the default catalog
-        if(!catalog.containsFruit(fruit)) {
-            throw new FruitUnavailableException("The fruit " + fruit + " is not currently available");
+        long start = ShopMetrics.start();
+        // check if the fruit is available in the catalog
+        if (tryAddItem(fruit, quantity, catalog) != OperationStatus.OK) {
+            FruitUnavailableException failure =
+                    new FruitUnavailableException("The fruit " + fruit + " is not currently available");
+            ShopMetrics.failure(ShopMetrics.Operation.ADD_ITEM, failure, start);
+            throw failure;
         }
-        // merge the desired fruit and amount into our HashMap
-        // will create a new entry if the fruit doesn't already exist in our cart
-        // and will update the total amount if it does
-        items.merge(fruit, quantity, Integer::sum);
+        ShopMetrics.success(ShopMetrics.Operation.ADD_ITEM, start);
+    }
+
+    // method to add items to the cart without throwing an exception when the fruit is unavailable
+    // returns OK or FRUIT_UNAVAILABLE, and costs about the same either way
+    public OperationStatus tryAddItem(Fruit fruit, int quantity, Catalog catalog) {
+        Catalog.Snapshot prices = catalog.pricesFor(fruit.bit());
+        // check if the fruit is available in the catalog
+        if (!prices.hasPrice(fruit)) {
+            return OperationStatus.FRUIT_UNAVAILABLE;
+        }
+        // add the desired amount to the fruit's slot
+        // this creates the line if the fruit isn't already in our cart and updates the total amount if it is
+        items[fruit.ordinal()] += quantity;
+        fruitsInCart |= fruit.bit();
+        totalQuantity += quantity;
+        // keep the running subtotal if it was worked out against this catalog and its prices haven't changed since
+        if (catalog == pricedWith && prices.priceVersion == pricedAtVersion) {
+            subtotal += Money.times(prices.priceInCentsOf(fruit), quantity);
+        } else {
+            pricedWith = null;
+        }
+        return OperationStatus.OK;
     }
 
     // method to remove items
     public void removeItem(Fruit fruit, int quantity) throws InsufficientQuantityException, ItemNotFoundException {
-        // find the current amount of the requested fruit in the cart
-        int currentQuantity = items.getOrDefault(fruit, 0);
-        // if the currentQuantity of the fruit is zero, throw an exception
-        if(currentQuantity == 0) {
-            throw new ItemNotFoundException("There isn't any " + fruit + " in the cart!");
+        long start = ShopMetrics.start();
+        OperationStatus status = tryRemoveItem(fruit, quantity);
+        // if there wasn't any of the fruit in the cart, throw an exception
+        if (status == OperationStatus.ITEM_NOT_FOUND) {
+            ItemNotFoundException failure = new ItemNotFoundException("There isn't any " + fruit + " in the cart!");
+            ShopMetrics.failure(ShopMetrics.Operation.REMOVE_ITEM, failure, start);
+            throw failure;
             // if the requested quantity is more than currently exists in the cart, throw an exception
+        } else if (status == OperationStatus.INSUFFICIENT_QUANTITY) {
+            InsufficientQuantityException failure =
+                    new InsufficientQuantityException("There isn't that much " + fruit + " in the cart!");
+            ShopMetrics.failure(ShopMetrics.Operation.REMOVE_ITEM, failure, start);
+            throw failure;
+        }
+        ShopMetrics.success(ShopMetrics.Operation.REMOVE_ITEM, start);
+    }
+
+    // method to remove items without throwing an exception when they can't be removed
+    // returns OK, ITEM_NOT_FOUND or INSUFFICIENT_QUANTITY, and costs about the same either way
+    public OperationStatus tryRemoveItem(Fruit fruit, int quantity) {
+        // find the current amount of the requested fruit in the cart
+        int currentQuantity = items[fruit.ordinal()];
+        if (currentQuantity == 0) {
+            return OperationStatus.ITEM_NOT_FOUND;
         } else if (quantity > currentQuantity) {
-            throw new InsufficientQuantityException("There isn't that much " + fruit + " in the cart!");
+            return OperationStatus.INSUFFICIENT_QUANTITY;
+        }
+        // deduct the desired value
+        items[fruit.ordinal()] = currentQuantity - quantity;
+        // remove the fruit entirely from the cart if the quantity becomes zero
+        if (items[fruit.ordinal()] == 0) {
+            fruitsInCart &= ~fruit.bit();
+        }
+        totalQuantity -= quantity;
+        // take the line off the running subtotal, unless the prices it was worked out with have changed
+        if (pricedWith != null) {
+            Catalog.Snapshot prices = pricedWith.snapshot();
+            if (prices.priceVersion == pricedAtVersion) {
+                subtotal -= Money.times(prices.priceInCentsOf(fruit), quantity);
+            } else {
+                pricedWith = null;
+            }
+        }
+        return OperationStatus.OK;
+    }
+
+    // put fruit back into the cart when rebuilding it from saved data, without checking a catalog
+    // the fruit was checked when it was first added, and its price may not be loaded yet
+    void restoreItem(Fruit fruit, int quantity) {
+        items[fruit.ordinal()] += quantity;
+        fruitsInCart |= fruit.bit();
+        totalQuantity += quantity;
+        pricedWith = null;
+    }
+
+    // method to apply a whole order of adds and removes in one go
+    // every line is checked against one snapshot of the catalog, in order, as if the earlier lines had been applied
+    // the cart only changes if every line is valid - otherwise nothing is applied and the result says which lines failed
+    public BatchResult applyBatch(List<CartOperation> operations, Catalog catalog) {
+        long fruitsAdded = 0;
+        for (CartOperation operation : operations) {
+            if (operation.getType() == CartOperation.Type.ADD) {
+                fruitsAdded |= operation.getFruit().bit();
+            }
+        }
+        Catalog.Snapshot prices = catalog.pricesFor(fruitsAdded | fruitsInCart);
+        OperationStatus[] statuses = new OperationStatus[operations.size()];
+        // work on a copy of the quantities so a failed batch leaves the cart untouched
+        int[] updated = items.clone();
+        boolean valid = true;
+        for (int line = 0; line < statuses.length; line++) {
+            CartOperation operation = operations.get(line);
+            int ordinal = operation.getFruit().ordinal();
+            OperationStatus status;
+            if (operation.getQuantity() <= 0) {
+                status = OperationStatus.INVALID_QUANTITY;
+            } else if (operation.getType() == CartOperation.Type.ADD) {
+                status = prices.hasPrice(operation.getFruit()) ? OperationStatus.OK : OperationStatus.FRUIT_UNAVAILABLE;
+                if (status.isSuccess()) {
+                    updated[ordinal] += operation.getQuantity();
+                }
+            } else if (updated[ordinal] == 0) {
+                status = OperationStatus.ITEM_NOT_FOUND;
+            } else if (operation.getQuantity() > updated[ordinal]) {
+                status = OperationStatus.INSUFFICIENT_QUANTITY;
+            } else {
+                status = OperationStatus.OK;
+                updated[ordinal] -= operation.getQuantity();
+            }
+            statuses[line] = status;
+            valid &= status.isSuccess();
+        }
+        if (valid) {
+            replaceItems(updated, catalog, prices);
+        }
+        return new BatchResult(statuses, valid);
+    }
+
+    // swap in a new set of quantities, keeping the running totals in step
+    private void replaceItems(int[] updated, Catalog catalog, Catalog.Snapshot prices) {
+        // the running subtotal can only be adjusted if it was worked out with these same prices
+        boolean keepSubtotal = catalog == pricedWith && prices.priceVersion == pricedAtVersion;
+        for (Fruit fruit : Fruit.VALUES) {
+            int change = updated[fruit.ordinal()] - items[fruit.ordinal()];
+            if (change == 0) {
+                continue;
+            }
+            items[fruit.ordinal()] = updated[fruit.ordinal()];
+            totalQuantity += change;
+            if (keepSubtotal) {
+                subtotal += Money.times(prices.priceInCentsOf(fruit), change);
+            }
+            if (items[fruit.ordinal()] == 0) {
+                fruitsInCart &= ~fruit.bit();
+            } else {
+                fruitsInCart |= fruit.bit();
+            }
+        }
+        if (!keepSubtotal) {
+            pricedWith = null;
         }
-        // check that the desired fruit to remove is present, deduct the desired value if so
-        // computeIfPresent only runs if the target fruit is present in items
-        items.computeIfPresent(fruit, (key, current) -> current - quantity);
-        // remove the fruit entirely from our HashMap if the quantity becomes zero
-        items.remove(fruit, 0);
     }
 
     // method to get the total price of all items in the cart
-    // includes discount if total quantity is 5kg or more
+    // includes any promotions - by default a 10% discount if total quantity is 5kg or more
     public double getTotalPrice(Catalog catalog) {
-        // initialize a variable to hold the total price
-        double totalPrice = 0.0;
-        // for-each loop to iterate over contents of items Map
-        for(Map.Entry<Fruit, Integer> entry : items.entrySet()) {
-            // retrieve a key/value pair of fruit/quantity
-            Fruit fruit = entry.getKey();
-            int quantity = entry.getValue();
-            // retrieve the price of the current fruit
-            double price = catalog.getPriceOf(fruit);
-            // add the price of the fruit/quantity pair to the total price
-            totalPrice += price * quantity;
+        return Money.toDollars(getTotalPriceInCents(catalog));
+    }
+
+    // method to get the exact total price of all items in the cart in cents
+    // discounts are rounded to the nearest cent, with half a cent rounded up
+    // with only whole-cart discounts this is constant time unless the catalog or its prices have changed since the
+    // cart was last priced - per-fruit promotions need a pass over the lines in the cart
+    public long getTotalPriceInCents(Catalog catalog) {
+        long start = ShopMetrics.start();
+        try {
+            long totalPrice = priceInCents(catalog);
+            ShopMetrics.success(ShopMetrics.Operation.GET_TOTAL_PRICE, start);
+            return totalPrice;
+        } catch (RuntimeException e) {
+            ShopMetrics.failure(ShopMetrics.Operation.GET_TOTAL_PRICE, e, start);
+            throw e;
         }
-        // if the total quantity of fruit is over 5kg, apply the discount
-        if(getTotalQuantity() >= 5) {
-            totalPrice *= 0.9;
+    }
+
+    // method to get the total price of the cart against a pinned version of the catalog
+    // every line is priced at that version, however the catalog has changed since
+    public double getTotalPrice(Catalog.Snapshot prices) {
+        return Money.toDollars(getTotalPriceInCents(prices));
+    }
+
+    public long getTotalPriceInCents(Catalog.Snapshot prices) {
+        long start = ShopMetrics.start();
+        try {
+            long totalPrice = pricing.isBulkOnly()
+                    ? pricing.applyBulkDiscount(subtotalAt(prices), getTotalQuantity(), pricing.now())
+                    : pricing.price(items, fruitsInCart, prices, pricing.now());
+            ShopMetrics.success(ShopMetrics.Operation.GET_TOTAL_PRICE, start);
+            return totalPrice;
+        } catch (RuntimeException e) {
+            ShopMetrics.failure(ShopMetrics.Operation.GET_TOTAL_PRICE, e, start);
+            throw e;
+        }
+    }
+
+    private long priceInCents(Catalog catalog) {
+        Catalog.Snapshot prices = catalog.pricesFor(fruitsInCart);
+        if (!pricing.isBulkOnly()) {
+            return pricing.price(items, fruitsInCart, prices, pricing.now());
+        }
+        if (catalog != pricedWith || prices.priceVersion != pricedAtVersion) {
+            rebaseSubtotal(catalog, prices);
+        }
+        return pricing.applyBulkDiscount(subtotal, getTotalQuantity(), pricing.now());
+    }
+
+    // work the subtotal out again from every line in the cart, using one set of prices
+    private void rebaseSubtotal(Catalog catalog, Catalog.Snapshot prices) {
+        // forget the old subtotal first, so it stays invalid if a fruit turns out to be unavailable
+        pricedWith = null;
+        subtotal = subtotalAt(prices);
+        pricedWith = catalog;
+        pricedAtVersion = prices.priceVersion;
+    }
+
+    // the price of every line in the cart before any discount, at one version of the catalog
+    private long subtotalAt(Catalog.Snapshot prices) {
+        long totalPrice = 0;
+        // loop over the bits of the fruits that are in the cart, lowest ordinal first
+        for (long remaining = fruitsInCart; remaining != 0; remaining &= remaining - 1) {
+            Fruit fruit = Fruit.VALUES[Long.numberOfTrailingZeros(remaining)];
+            // add the price of the fruit/quantity pair to the total price
+            totalPrice += Money.times(prices.priceInCentsOf(fruit), items[fruit.ordinal()]);
         }
         return totalPrice;
     }
 
-    // method to calculate the total price of items in the cart, with or without a discount
-    // DEPRECATED - had to move the discount logic to getTotalPrice() so discount would be applied to the total quantity
-    // instead of each quantity of fruit separately - did not work correctly when adding multiple types of fruit with less than 5kg each
-//    private double calculateDiscountedPrice(double price, int quantity) {
-//        // Apply a 10% discount for 5 kilos or more
-//        if(quantity >= 5) {
-//            return price * quantity * 0.9;
-//        }
-//        // otherwise calculate full price
-//        return price * quantity;
-//    }
+    // how much of a fruit the cart has reserved
+    int getReserved(Fruit fruit) {
+        return reserved == null ? 0 : reserved[fruit.ordinal()];
+    }
+
+    void setReserved(Fruit fruit, int quantity) {
+        if (reserved == null) {
+            if (quantity == 0) {
+                return;
+            }
+            reserved = new int[Fruit.VALUES.length];
+        }
+        reserved[fruit.ordinal()] = quantity;
+    }
+
+    // the promotions the cart is priced with
+    PricingPipeline getPricing() {
+        return pricing;
+    }
+
+    // bitset of the fruits in the cart, one bit per Fruit.ordinal()
+    long getFruitsInCart() {
+        return fruitsInCart;
+    }
+
+    // move the running subtotal on to a new price version without working it out again
+    // only safe when none of the fruits in the cart changed price between the two versions
+    void carryPricesForward(Catalog catalog, long fromVersion, long toVersion) {
+        if (catalog == pricedWith && pricedAtVersion == fromVersion) {
+            pricedAtVersion = toVersion;
+        }
+    }
 
     // method to get a List<String> of what is in the cart
     public List<String> getCartItems() {
-        // convert the items map into a stream representing the entries in the map
-        return items.entrySet().stream()
-                // uses lambda expression to extract the key / value pair as a concatenated String
-                .map(entry -> entry.getKey() + ": " + entry.getValue() + " kg")
-                // collects them into a List
-                .collect(Collectors.toList());
+        List<String> cartItems = new ArrayList<>();
+        for (Fruit fruit : Fruit.VALUES) {
+            int quantity = items[fruit.ordinal()];
+            if (quantity != 0) {
+                // describe each line as a String such as "PEAR: 2 kg"
+                cartItems.add(fruit + ": " + quantity + " kg");
+            }
+        }
+        return cartItems;
     }
 
     // method to get the amount of a given fruit in the cart
     public int getItemQuantity(Fruit fruit) {
-        return items.getOrDefault(fruit, 0);
+        return items[fruit.ordinal()];
     }
 
     // method to get the total amount of items in the cart
     private int getTotalQuantity() {
-        // sum up the quantities of all items in the cart
-        return items.values().stream().mapToInt(Integer::intValue).sum();
+        return totalQuantity;
     }
 }
@@ -0,0 +1,135 @@
+package com.serenitydojo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class StockReservations {
+    // each fruit's counter sits 16 longs (128 bytes) away from the next one, so threads reserving different fruits
+    // never share a cache line and don't slow each other down
+    private static final int STRIDE = 16;
+
+    // how much of each fruit is still free to reserve, indexed by Fruit.ordinal() * STRIDE
+    private final AtomicLongArray available;
+
+    // create the reservations from the catalog's stock levels at this moment
+    // stock added to the catalog afterwards is only seen if it is added with addStock below
+    public StockReservations(Catalog catalog) {
+        available = new AtomicLongArray(Fruit.VALUES.length * STRIDE);
+        for (Fruit fruit : Fruit.VALUES) {
+            available.set(slot(fruit), catalog.getStockOf(fruit));
+        }
+    }
+
+    // method to reserve a quantity of fruit - returns false, reserving nothing, if there isn't enough left
+    // uses compare-and-set, so two threads can never both take the last of the stock
+    public boolean reserve(Fruit fruit, long quantity) {
+        checkQuantity(fruit, quantity);
+        int slot = slot(fruit);
+        while (true) {
+            long current = available.get(slot);
+            if (current < quantity) {
+                return false;
+            }
+            if (available.compareAndSet(slot, current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    // method to give a reserved quantity of fruit back
+    public void release(Fruit fruit, long quantity) {
+        checkQuantity(fruit, quantity);
+        available.addAndGet(slot(fruit), quantity);
+    }
+
+    // method to add a delivery of fruit to the catalog and make it free to reserve
+    public void addStock(Fruit fruit, long quantity, Catalog catalog) {
+        checkQuantity(fruit, quantity);
+        catalog.addStock(fruit, quantity);
+        available.addAndGet(slot(fruit), quantity);
+    }
+
+    // method to get how much of a fruit is still free to reserve
+    public long getAvailable(Fruit fruit) {
+        return available.get(slot(fruit));
+    }
+
+    // method to reserve stock and add it to a cart in one step
+    // if the cart can't take the fruit, the reservation is given back
+    public OperationStatus addToCart(ShoppingCart cart, Fruit fruit, int quantity, Catalog catalog) {
+        if (!reserve(fruit, quantity)) {
+            return OperationStatus.OUT_OF_STOCK;
+        }
+        OperationStatus status = cart.tryAddItem(fruit, quantity, catalog);
+        if (status.isSuccess()) {
+            // the cart remembers what it reserved, so only that is given back when fruit leaves it
+            cart.setReserved(fruit, cart.getReserved(fruit) + quantity);
+        } else {
+            release(fruit, quantity);
+        }
+        return status;
+    }
+
+    // method to remove fruit from a cart and give its reservation back
+    // fruit that went into the cart without a reservation is removed without giving anything back
+    public OperationStatus removeFromCart(ShoppingCart cart, Fruit fruit, int quantity) {
+        checkQuantity(fruit, quantity);
+        OperationStatus status = cart.tryRemoveItem(fruit, quantity);
+        if (status.isSuccess()) {
+            giveBack(cart, fruit, quantity);
+        }
+        return status;
+    }
+
+    // method to empty an expired or abandoned cart and give all of its reservations back
+    public void releaseCart(ShoppingCart cart) {
+        for (Fruit fruit : Fruit.VALUES) {
+            int quantity = cart.getItemQuantity(fruit);
+            if (quantity > 0) {
+                cart.tryRemoveItem(fruit, quantity);
+            }
+            int reserved = cart.getReserved(fruit);
+            if (reserved > 0) {
+                cart.setReserved(fruit, 0);
+                available.addAndGet(slot(fruit), reserved);
+            }
+        }
+    }
+
+    // method to check out a cart - the fruit it reserved is taken out of the catalog's stock for good
+    // any reservation for more than is now in the cart is given back, and the cart is left holding no reservations
+    public void commit(ShoppingCart cart, Catalog catalog) {
+        for (Fruit fruit : Fruit.VALUES) {
+            int reserved = cart.getReserved(fruit);
+            if (reserved == 0) {
+                continue;
+            }
+            int sold = Math.min(reserved, cart.getItemQuantity(fruit));
+            if (sold > 0) {
+                catalog.takeStock(fruit, sold);
+            }
+            if (reserved > sold) {
+                available.addAndGet(slot(fruit), reserved - sold);
+            }
+            cart.setReserved(fruit, 0);
+        }
+    }
+
+    // release no more than the cart actually reserved
+    private void giveBack(ShoppingCart cart, Fruit fruit, int quantity) {
+        int released = Math.min(quantity, cart.getReserved(fruit));
+        if (released > 0) {
+            cart.setReserved(fruit, cart.getReserved(fruit) - released);
+            available.addAndGet(slot(fruit), released);
+        }
+    }
+
+    private static void checkQuantity(Fruit fruit, long quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("The quantity of " + fruit + " must be more than zero");
+        }
+    }
+
+    private static int slot(Fruit fruit) {
+        return fruit.ordinal() * STRIDE;
+    }
+}
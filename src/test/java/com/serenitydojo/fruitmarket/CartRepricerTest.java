@@ -0,0 +1,116 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CartRepricerTest {
+    // default prices: APPLE 4.00, BANANA 6.00, ORANGE 5.50, PEAR 4.50
+    Catalog catalog = Catalog.withDefaultItems();
+    CartRepricer repricer = new CartRepricer(catalog);
+
+    @Test
+    public void shouldOnlyRepriceCartsHoldingAChangedFruit() {
+        List<ShoppingCart> carts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ShoppingCart cart = new ShoppingCart();
+            // every other cart has apples, the rest only pears
+            cart.addItem(i % 2 == 0 ? Fruit.APPLE : Fruit.PEAR, 2, catalog);
+            cart.getTotalPrice(catalog);
+            carts.add(cart);
+        }
+        Map<Fruit, Double> sale = new HashMap<>();
+        sale.put(Fruit.APPLE, 3.00);
+        sale.put(Fruit.MANGO, 7.00);
+
+        RepricingResult result = repricer.reprice(sale, carts);
+
+        assertThat(result.getCartsRepriced()).isEqualTo(5_000);
+        assertThat(result.getCartsSkipped()).isEqualTo(5_000);
+        assertThat(result.getPriceVersion()).isEqualTo(catalog.getPriceVersion());
+        assertThat(carts.get(0).getTotalPrice(catalog)).isEqualTo(6.0);
+        assertThat(carts.get(1).getTotalPrice(catalog)).isEqualTo(9.0);
+    }
+
+    @Test
+    public void shouldPublishEveryPriceChangeAsOneVersion() {
+        long before = catalog.getPriceVersion();
+        Map<Fruit, Double> sale = new HashMap<>();
+        sale.put(Fruit.APPLE, 3.00);
+        sale.put(Fruit.BANANA, 5.00);
+        sale.put(Fruit.PEAR, 4.00);
+
+        repricer.reprice(sale, new ArrayList<>());
+
+        assertThat(catalog.getPriceVersion()).isEqualTo(before + 1);
+        assertThat(catalog.getPriceOf(Fruit.BANANA)).isEqualTo(5.0);
+    }
+
+    @Test
+    public void skippedCartsShouldStayCorrectWhenTheyChangeLater() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.PEAR, 2, catalog);
+        cart.getTotalPrice(catalog);
+        Map<Fruit, Double> sale = new HashMap<>();
+        sale.put(Fruit.APPLE, 3.00);
+
+        repricer.reprice(sale, Collections.singletonList(cart));
+        // the running total was carried over, so adding the new-priced fruit afterwards must use the new price
+        cart.addItem(Fruit.APPLE, 1, catalog);
+
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(12.0);
+    }
+
+    @Test
+    public void anEmptyBatchShouldLeaveStaleTotalsToBeWorkedOutAgain() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        cart.getTotalPrice(catalog);
+        // the price changes outside the repricer, so the cart's running total is now out of date
+        catalog.updatePriceOf(Fruit.APPLE, 10.00);
+
+        RepricingResult result = repricer.reprice(new HashMap<>(), Collections.singletonList(cart));
+
+        assertThat(result.getCartsRepriced()).isZero();
+        assertThat(result.getCartsSkipped()).isEqualTo(1);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(20.0);
+    }
+
+    @Test
+    public void shouldRepriceTheCartsInAStoreWithoutUnpackingThem() throws Exception {
+        CartStore store = new CartStore(4, Duration.ofMinutes(30), Clock.systemUTC());
+        for (long id = 0; id < 10; id++) {
+            Fruit fruit = id % 2 == 0 ? Fruit.APPLE : Fruit.PEAR;
+            store.withCart(id, cart -> cart.tryAddItem(fruit, 2, catalog));
+        }
+        // pack every cart, then bring all but the last two back into use
+        Thread.sleep(5);
+        assertThat(store.compactIdle(Duration.ZERO)).isEqualTo(10);
+        for (long id = 0; id < 8; id++) {
+            store.withCart(id, cart -> cart.getTotalPrice(catalog));
+        }
+        Map<Fruit, Double> sale = new HashMap<>();
+        sale.put(Fruit.APPLE, 3.00);
+
+        RepricingResult result = repricer.reprice(sale, store);
+
+        // carts 0, 2, 4 and 6 hold apples and are unpacked - the packed carts 8 and 9 are left alone
+        assertThat(result.getCartsRepriced()).isEqualTo(4);
+        assertThat(result.getCartsSkipped()).isEqualTo(6);
+        assertThat(store.getCompactedCount()).isEqualTo(2);
+        double packedApples = store.withCart(8, cart -> cart.getTotalPrice(catalog));
+        assertThat(packedApples).isEqualTo(6.0);
+        double unpackedPears = store.withCart(1, cart -> cart.getTotalPrice(catalog));
+        assertThat(unpackedPears).isEqualTo(9.0);
+    }
+}
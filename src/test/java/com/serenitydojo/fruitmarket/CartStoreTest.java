@@ -0,0 +1,131 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CartStoreTest {
+    Catalog catalog = Catalog.withDefaultItems();
+    MutableClock clock = new MutableClock();
+    CartStore store = new CartStore(16, Duration.ofMinutes(30), clock);
+
+    @Test
+    public void shouldCreateACartTheFirstTimeItIsUsed() throws Exception {
+        assertThat(store.contains(42)).isFalse();
+        store.withCart(42, cart -> {
+            cart.addItem(Fruit.APPLE, 2, catalog);
+            return null;
+        });
+        assertThat(store.contains(42)).isTrue();
+        double totalPrice = store.withCart(42, cart -> cart.getTotalPrice(catalog));
+        assertThat(totalPrice).isEqualTo(8.00);
+        assertThat(store.remove(42).getItemQuantity(Fruit.APPLE)).isEqualTo(2);
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    public void shouldEvictCartsThatHaveBeenIdleForTooLong() throws Exception {
+        store.withCart(1, cart -> cart.tryAddItem(Fruit.APPLE, 1, catalog));
+        clock.advance(Duration.ofMinutes(20));
+        store.withCart(2, cart -> cart.tryAddItem(Fruit.PEAR, 1, catalog));
+        clock.advance(Duration.ofMinutes(20));
+
+        // cart 1 has been idle for 40 minutes, cart 2 for 20
+        Map<Long, ShoppingCart> evicted = new HashMap<>();
+        assertThat(store.evictIdle(evicted::put)).isEqualTo(1);
+        assertThat(evicted).containsOnlyKeys(1L);
+        assertThat(store.contains(1)).isFalse();
+        assertThat(store.contains(2)).isTrue();
+    }
+
+    @Test
+    public void shouldNotEvictACartThatIsInUse() throws Exception {
+        store.withCart(7, cart -> {
+            // the cart goes idle while this request is still running
+            clock.advance(Duration.ofHours(1));
+            assertThat(store.evictIdle()).isZero();
+            return cart.tryAddItem(Fruit.BANANA, 1, catalog);
+        });
+        assertThat(store.contains(7)).isTrue();
+    }
+
+    @Test
+    public void shouldPackIdleCartsAndUnpackThemWhenTheyAreUsedAgain() throws Exception {
+        store.withCart(1, cart -> cart.tryAddItem(Fruit.APPLE, 3, catalog));
+        store.withCart(2, cart -> cart.tryAddItem(Fruit.PEAR, 1, catalog));
+        clock.advance(Duration.ofMinutes(10));
+        store.withCart(3, cart -> cart.tryAddItem(Fruit.BANANA, 1, catalog));
+
+        // carts 1 and 2 have been idle for 10 minutes, cart 3 has just been used
+        assertThat(store.compactIdle(Duration.ofMinutes(5))).isEqualTo(2);
+        assertThat(store.getCompactedCount()).isEqualTo(2);
+        assertThat(store.size()).isEqualTo(3);
+
+        // using a packed cart brings it back as it was
+        long total = store.withCart(1, cart -> cart.getTotalPriceInCents(catalog));
+        assertThat(total).isEqualTo(1200);
+        assertThat(store.getCompactedCount()).isEqualTo(1);
+        // and removing one hands back the unpacked cart
+        assertThat(store.remove(2).getCartItems()).containsExactly("PEAR: 1 kg");
+        assertThat(store.getCompactedCount()).isZero();
+    }
+
+    @Test
+    public void shouldRunRequestsForTheSameCartOneAtATime() throws Exception {
+        ExecutorService executor = CartStore.newRequestExecutor();
+        try {
+            List<CompletableFuture<OperationStatus>> requests = new ArrayList<>();
+            // 10,000 requests spread over 100 carts
+            for (int i = 0; i < 10_000; i++) {
+                requests.add(store.submit(i % 100, cart -> cart.tryAddItem(Fruit.ORANGE, 1, catalog), executor));
+            }
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(store.size()).isEqualTo(100);
+        for (long cartId = 0; cartId < 100; cartId++) {
+            int oranges = store.withCart(cartId, cart -> cart.getItemQuantity(Fruit.ORANGE));
+            assertThat(oranges).isEqualTo(100);
+        }
+    }
+
+    // a clock that only moves when the test moves it
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2026-06-01T09:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+public class CatalogSnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackThePricesAndStockThatWereSaved() throws IOException {
+        Catalog catalog = Catalog.withDefaultItems();
+        catalog.updatePriceOf(Fruit.PEACH, 3.25);
+        catalog.addStock(Fruit.MANGO, 2_000_000);
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+
+        CatalogSnapshotFile.write(catalog, file);
+        CatalogSnapshotFile snapshot = CatalogSnapshotFile.open(file);
+
+        // prices and stock are read straight from the file
+        assertThat(snapshot.getPriceOf(Fruit.APPLE)).isEqualTo(4.00);
+        assertThat(snapshot.getPriceInCentsOf(Fruit.PEACH)).isEqualTo(325);
+        assertThat(snapshot.getStockOf(Fruit.MANGO)).isEqualTo(2_000_000);
+        assertThat(snapshot.getStockOf(Fruit.PEACH)).isZero();
+        assertThat(snapshot.getPriceVersion()).isEqualTo(catalog.getPriceVersion());
+        // stock without a price is not for sale
+        assertThat(snapshot.containsFruit(Fruit.MANGO)).isFalse();
+        assertThrows(FruitUnavailableException.class, () -> snapshot.getPriceOf(Fruit.MANGO));
+    }
+
+    @Test
+    public void shouldRebuildACatalogFromTheFile() throws IOException {
+        Catalog catalog = Catalog.withDefaultItems();
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+        CatalogSnapshotFile.write(catalog, file);
+
+        Catalog restored = CatalogSnapshotFile.open(file).toCatalog();
+
+        assertThat(restored.getAvailableFruits()).isEqualTo(catalog.getAvailableFruits());
+        for (Fruit fruit : Fruit.values()) {
+            assertThat(restored.getPriceOrDefault(fruit, -1)).isEqualTo(catalog.getPriceOrDefault(fruit, -1));
+        }
+        assertThat(restored.getPriceVersion()).isEqualTo(catalog.getPriceVersion());
+    }
+
+    @Test
+    public void shouldPriceCartsStraightFromTheFile() throws IOException {
+        Catalog catalog = Catalog.withDefaultItems();
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+        CatalogSnapshotFile.write(catalog, file);
+
+        // nothing is copied up front - each price is read from the mapping the first time it is needed
+        Catalog backed = Catalog.backedBy(CatalogSnapshotFile.open(file));
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.PEAR, 2, backed);
+
+        assertThat(cart.getTotalPrice(backed)).isEqualTo(9.00);
+    }
+
+    @Test
+    public void shouldRefuseToOpenAFileThatIsNotASnapshot() throws IOException {
+        Path file = folder.newFile("not-a-snapshot").toPath();
+        Files.write(file, "APPLE,4.00\nPEAR,4.50\n".getBytes());
+        assertThrows(IOException.class, () -> CatalogSnapshotFile.open(file));
+    }
+}
@@ -5,10 +5,17 @@ import com.serenitydojo.CatalogItem;
 import com.serenitydojo.Fruit;
 
 import com.serenitydojo.FruitUnavailableException;
+import com.serenitydojo.ShoppingCart;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertThrows;
@@ -51,6 +58,10 @@ public class CatalogTest {
         // assert that the prices have been updated
         assertThat(catalog.getPriceOf(Fruit.APPLE)).isEqualTo(5.00);
         assertThat(catalog.getPriceOf(Fruit.ORANGE)).isEqualTo(4.50);
+        // prices can also be set and read as an exact number of cents
+        catalog.updatePriceInCentsOf(Fruit.PEAR, 475);
+        assertThat(catalog.getPriceInCentsOf(Fruit.PEAR)).isEqualTo(475);
+        assertThat(catalog.getPriceOf(Fruit.PEAR)).isEqualTo(4.75);
     }
 
     @Test
@@ -83,6 +94,54 @@ public class CatalogTest {
         assertThrows(FruitUnavailableException.class, catalog::getAvailableFruits);
     }
 
+    @Test
+    public void shouldKeepOneStockEntryPerFruitHoweverLargeTheQuantity() {
+        // load a warehouse feed with 2 million kg of bananas, delivered in two lots, and some pears
+        Catalog catalog = Catalog.withItems(Collections.singletonMap(Fruit.BANANA, 6.00),
+                new CatalogItem(Fruit.BANANA, 2_000_000),
+                new CatalogItem(Fruit.PEAR, 20),
+                new CatalogItem(Fruit.BANANA, 500));
+        // assert that each fruit is listed once, with the lots added together
+        assertThat(catalog.getAvailableFruits()).containsExactly(
+                new CatalogItem(Fruit.BANANA, 2_000_500),
+                new CatalogItem(Fruit.PEAR, 20));
+        assertThat(catalog.getStockOf(Fruit.BANANA)).isEqualTo(2_000_500);
+        assertThat(catalog.getStockOf(Fruit.MANGO)).isZero();
+    }
+
+    @Test
+    public void shouldReuseTheSortedListUntilTheStockChanges() {
+        List<CatalogItem> fruits = catalog.getAvailableFruits();
+        // repeat calls and price updates should return the same cached list
+        assertThat(catalog.getAvailableFruits()).isSameAs(fruits);
+        catalog.updatePriceOf(Fruit.APPLE, 5.00);
+        assertThat(catalog.getAvailableFruits()).isSameAs(fruits);
+        // the cached list is shared, so it should not be possible to change it
+        assertThrows(UnsupportedOperationException.class, () -> fruits.add(new CatalogItem(Fruit.MANGO, 1)));
+        // adding stock should build a new sorted list that includes the new fruit
+        catalog.addStock(Fruit.MANGO, 3);
+        assertThat(catalog.getAvailableFruits()).isNotSameAs(fruits).containsExactly(
+                new CatalogItem(Fruit.APPLE, 5),
+                new CatalogItem(Fruit.BANANA, 5),
+                new CatalogItem(Fruit.MANGO, 3),
+                new CatalogItem(Fruit.ORANGE, 5),
+                new CatalogItem(Fruit.PEAR, 5));
+    }
+
+    @Test
+    public void shouldListAvailableFruitsOnePageAtATime() {
+        // pages of two fruits, in name order
+        assertThat(catalog.getAvailableFruits(0, 2)).extracting(CatalogItem::getFruit)
+                .containsExactly(Fruit.APPLE, Fruit.BANANA);
+        assertThat(catalog.getAvailableFruits(2, 2)).extracting(CatalogItem::getFruit)
+                .containsExactly(Fruit.ORANGE, Fruit.PEAR);
+        // a page past the end is empty rather than an error
+        assertThat(catalog.getAvailableFruits(4, 2)).isEmpty();
+        assertThat(Catalog.withItems(Collections.emptyMap()).getAvailableFruits(0, 10)).isEmpty();
+        // the stream accessor should see the same fruits in the same order
+        assertThat(catalog.availableFruits()).containsExactlyElementsOf(catalog.getAvailableFruits());
+    }
+
     @Test
     public void shouldBeAbleToRetrieveAPrice() {
         // assert that the default prices are correct
@@ -94,4 +153,85 @@ public class CatalogTest {
         // assert that checking for the price of a fruit not in the catalog throws FruitUnavailableException
         assertThrows(FruitUnavailableException.class, () -> catalog.getPriceOf(Fruit.MANGO));
     }
+
+    @Test
+    public void shouldReturnTheDefaultPriceInsteadOfThrowingForAnUnavailableFruit() {
+        assertThat(catalog.getPriceOrDefault(Fruit.APPLE, -1)).isEqualTo(4.00);
+        assertThat(catalog.getPriceOrDefault(Fruit.MANGO, -1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldShareOneCatalogBetweenReadersWhilePricesAreUpdated() throws Exception {
+        // a pricing job keeps moving the price of apples between $4 and $5 while checkout threads read the catalog
+        int readers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 10_000; i++) {
+                    catalog.updatePriceOf(Fruit.APPLE, i % 2 == 0 ? 5.00 : 4.00);
+                }
+                return null;
+            }));
+            for (int r = 0; r < readers; r++) {
+                tasks.add(executor.submit(() -> {
+                    ShoppingCart cart = new ShoppingCart();
+                    cart.addItem(Fruit.APPLE, 1, catalog);
+                    start.await();
+                    for (int i = 0; i < 10_000; i++) {
+                        // every read should see one of the published prices, never a missing or torn value
+                        assertThat(catalog.containsFruit(Fruit.APPLE)).isTrue();
+                        assertThat(catalog.getPriceOf(Fruit.APPLE)).isIn(4.00, 5.00);
+                        assertThat(cart.getTotalPrice(catalog)).isIn(4.00, 5.00);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // the 10,000 updates plus the 4 default prices should each have published a new version
+        assertThat(catalog.getPriceVersion()).isEqualTo(10_004);
+    }
+
+    @Test
+    public void shouldPriceACheckoutAgainstAPinnedVersion() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        cart.addItem(Fruit.PEAR, 1, catalog);
+        Catalog.Snapshot pinned = catalog.snapshot();
+        // prices change after checkout has started
+        catalog.updatePriceOf(Fruit.APPLE, 10.00);
+        catalog.updatePriceOf(Fruit.PEAR, 10.00);
+
+        // the pinned version still has the old prices for every line
+        assertThat(pinned.getPriceOf(Fruit.APPLE)).isEqualTo(4.00);
+        assertThat(cart.getTotalPrice(pinned)).isEqualTo(12.50);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(30.00);
+        assertThat(catalog.snapshot().getVersion()).isEqualTo(pinned.getVersion() + 2);
+    }
+
+    @Test
+    public void shouldKeepTheMostRecentVersionsForAuditing() {
+        Catalog audited = new Catalog(3);
+        for (int i = 1; i <= 5; i++) {
+            audited.updatePriceOf(Fruit.MANGO, i);
+        }
+        audited.addStock(Fruit.MANGO, 7);
+
+        // versions 4, 5 and 6 are kept - 6 only changed the stock, so it shares the prices of version 5
+        assertThat(audited.getSnapshotHistory()).extracting(Catalog.Snapshot::getVersion).containsExactly(4L, 5L, 6L);
+        assertThat(audited.getSnapshot(4).get().getPriceOf(Fruit.MANGO)).isEqualTo(4.0);
+        assertThat(audited.getSnapshot(4).get().getStockOf(Fruit.MANGO)).isEqualTo(0);
+        assertThat(audited.getSnapshot(6).get().getStockOf(Fruit.MANGO)).isEqualTo(7);
+        assertThat(audited.getSnapshot(3)).isEmpty();
+        // a catalog that keeps no history can still hand out its current version
+        assertThat(catalog.getSnapshot(catalog.snapshot().getVersion())).contains(catalog.snapshot());
+    }
 }
@@ -0,0 +1,134 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.within;
+
+public class CheckoutRecorderTest {
+    // default prices: APPLE 4.00, BANANA 6.00, ORANGE 5.50, PEAR 4.50
+    Catalog catalog = Catalog.withDefaultItems();
+    MutableClock clock = new MutableClock();
+    // tiny segments, so the checkouts below are spread over several of them
+    CheckoutRecorder recorder = new CheckoutRecorder(2, clock);
+
+    @Test
+    public void shouldAddUpKilosAndRevenueByFruit() {
+        recordSampleCheckouts();
+
+        assertThat(recorder.getCheckoutCount()).isEqualTo(3);
+        assertThat(recorder.getLineCount()).isEqualTo(4);
+        assertThat(recorder.getKgSoldByFruit())
+                .containsOnly(entry(Fruit.APPLE, 4L), entry(Fruit.BANANA, 1L), entry(Fruit.PEAR, 2L));
+        // the 10% discount on the first cart is shared between its lines
+        assertThat(recorder.getRevenueByFruit())
+                .containsOnly(entry(Fruit.APPLE, 1480L), entry(Fruit.BANANA, 600L), entry(Fruit.PEAR, 810L));
+        assertThat(recorder.getDiscountHitRate()).isCloseTo(1.0 / 3, within(1e-9));
+    }
+
+    @Test
+    public void shouldGroupSalesIntoPeriods() {
+        recordSampleCheckouts();
+
+        assertThat(recorder.getRevenueByPeriod(Duration.ofHours(1))).containsExactly(
+                entry(Instant.parse("2026-06-01T09:00:00Z"), 2490L),
+                entry(Instant.parse("2026-06-01T10:00:00Z"), 400L));
+        assertThat(recorder.getKgSoldByPeriod(Fruit.APPLE, Duration.ofHours(1))).containsExactly(
+                entry(Instant.parse("2026-06-01T09:00:00Z"), 3L),
+                entry(Instant.parse("2026-06-01T10:00:00Z"), 1L));
+    }
+
+    @Test
+    public void emptyRecorderShouldHaveNoSales() {
+        assertThat(recorder.getCheckoutCount()).isZero();
+        assertThat(recorder.getKgSoldByFruit()).isEmpty();
+        assertThat(recorder.getDiscountHitRate()).isZero();
+        assertThat(recorder.getRevenueByPeriod(Duration.ofHours(1))).isEmpty();
+    }
+
+    @Test
+    public void shouldRecordCheckoutsFromManyThreads() throws Exception {
+        CheckoutRecorder shared = new CheckoutRecorder(100, Clock.systemUTC());
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        ShoppingCart cart = new ShoppingCart();
+                        cart.addItem(Fruit.ORANGE, 2, catalog);
+                        shared.record(cart, catalog);
+                        // queries can run while checkouts are still being recorded
+                        assertThat(shared.getKgSoldByFruit().getOrDefault(Fruit.ORANGE, 0L)).isEven();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(shared.getCheckoutCount()).isEqualTo(8_000);
+        assertThat(shared.getKgSoldByFruit()).containsOnly(entry(Fruit.ORANGE, 16_000L));
+        assertThat(shared.getRevenueByFruit()).containsOnly(entry(Fruit.ORANGE, 8_800_000L));
+    }
+
+    private void recordSampleCheckouts() {
+        // 5 kg, so this cart gets the 10% bulk discount: $21.00 becomes $18.90
+        ShoppingCart bulk = new ShoppingCart();
+        bulk.addItem(Fruit.APPLE, 3, catalog);
+        bulk.addItem(Fruit.PEAR, 2, catalog);
+        recorder.record(bulk, catalog);
+
+        clock.advance(Duration.ofMinutes(30));
+        ShoppingCart bananas = new ShoppingCart();
+        bananas.addItem(Fruit.BANANA, 1, catalog);
+        recorder.record(bananas, catalog);
+
+        clock.advance(Duration.ofMinutes(60));
+        ShoppingCart apple = new ShoppingCart();
+        apple.addItem(Fruit.APPLE, 1, catalog);
+        recorder.record(apple, catalog);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2026-06-01T09:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
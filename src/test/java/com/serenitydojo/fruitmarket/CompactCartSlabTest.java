@@ -0,0 +1,73 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactCartSlabTest {
+    CompactCartSlab slab = new CompactCartSlab();
+    Catalog catalog = Catalog.withDefaultItems();
+
+    @Test
+    public void shouldGiveBackTheSameCartThatWasStored() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        cart.addItem(Fruit.PEAR, 300, catalog);
+        cart.addItem(Fruit.BANANA, Integer.MAX_VALUE - 1, catalog);
+
+        ShoppingCart restored = slab.load(slab.store(cart));
+
+        for (Fruit fruit : Fruit.values()) {
+            assertThat(restored.getItemQuantity(fruit)).isEqualTo(cart.getItemQuantity(fruit));
+        }
+        // an empty cart comes back empty
+        assertThat(slab.load(slab.store(new ShoppingCart())).getCartItems()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepTheCartsPricing() {
+        PricingPipeline twoForOne = PricingPipeline.compile(PricingRule.multiBuy(Fruit.APPLE, 2, 1));
+        ShoppingCart cart = new ShoppingCart(twoForOne);
+        cart.addItem(Fruit.APPLE, 4, catalog);
+        ShoppingCart standard = new ShoppingCart();
+        standard.addItem(Fruit.APPLE, 4, catalog);
+
+        ShoppingCart restored = slab.load(slab.store(cart));
+        ShoppingCart restoredStandard = slab.load(slab.store(standard));
+
+        // 4 apples for the price of 2
+        assertThat(restored.getTotalPrice(catalog)).isEqualTo(8.00);
+        assertThat(restoredStandard.getTotalPrice(catalog)).isEqualTo(16.00);
+    }
+
+    @Test
+    public void shouldPackAMillionSmallCartsIntoAFewBytesEach() {
+        List<Long> handles = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addItem(Fruit.APPLE, 1 + i % 100, catalog);
+            cart.addItem(Fruit.ORANGE, 2, catalog);
+            handles.add(slab.store(cart));
+        }
+        assertThat(slab.getCartsStored()).isEqualTo(1_000_000);
+        // two small lines fit the 8 byte slots
+        assertThat(slab.getReservedBytes()).isLessThanOrEqualTo(8L * 1_000_000 + 64 * 1024);
+        assertThat(slab.load(handles.get(123_456)).getCartItems()).containsExactly("APPLE: 57 kg", "ORANGE: 2 kg");
+    }
+
+    @Test
+    public void shouldReuseFreedSlots() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        for (int i = 0; i < 100_000; i++) {
+            slab.free(slab.store(cart));
+        }
+        assertThat(slab.getCartsStored()).isZero();
+        assertThat(slab.getReservedBytes()).isEqualTo(64 * 1024);
+    }
+}
@@ -0,0 +1,240 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+public class PriceCacheTest {
+    MutableClock clock = new MutableClock();
+    StubPriceSource pricingService = new StubPriceSource(50);
+
+    @Test
+    public void concurrentMissesForTheSameFruitShouldLoadItOnce() throws Exception {
+        PriceCache cache = new PriceCache(pricingService, 6, Duration.ofMinutes(5), Duration.ofMinutes(4),
+                Runnable::run, clock);
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Long>> lookups = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return cache.loadPriceInCents(Fruit.APPLE);
+                }));
+            }
+            start.countDown();
+            for (Future<Long> lookup : lookups) {
+                assertThat(lookup.get(10, TimeUnit.SECONDS)).isEqualTo(400L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(pricingService.calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLoadAgainOnceThePriceHasExpired() {
+        PriceCache cache = new PriceCache(pricingService, 6, Duration.ofMinutes(5), Duration.ofMinutes(10),
+                Runnable::run, clock);
+        assertThat(cache.loadPriceInCents(Fruit.APPLE)).isEqualTo(400);
+        pricingService.setPrice(Fruit.APPLE, 350);
+        clock.advance(Duration.ofMinutes(4));
+        // still fresh enough
+        assertThat(cache.loadPriceInCents(Fruit.APPLE)).isEqualTo(400);
+        clock.advance(Duration.ofMinutes(1));
+        assertThat(cache.loadPriceInCents(Fruit.APPLE)).isEqualTo(350);
+        assertThat(cache.getLoadCount()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefreshAnAgeingPriceInTheBackground() throws Exception {
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        PriceCache cache = new PriceCache(pricingService, 6, Duration.ofMinutes(5), Duration.ofMinutes(4),
+                refresher, clock);
+        cache.loadPriceInCents(Fruit.PEAR);
+        pricingService.setPrice(Fruit.PEAR, 499);
+        clock.advance(Duration.ofMinutes(4));
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch finishRefresh = new CountDownLatch(1);
+        pricingService.blockUntil(refreshStarted, finishRefresh);
+
+        // the old price is returned while the refresh is still waiting on the source
+        assertThat(cache.loadPriceInCents(Fruit.PEAR)).isEqualTo(450);
+        assertThat(refreshStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(cache.getRefreshCount()).isEqualTo(1);
+        assertThat(cache.loadPriceInCents(Fruit.PEAR)).isEqualTo(450);
+
+        finishRefresh.countDown();
+        refresher.shutdown();
+        assertThat(refresher.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(cache.loadPriceInCents(Fruit.PEAR)).isEqualTo(499);
+    }
+
+    @Test
+    public void shouldDropTheLeastRecentlyReadPriceWhenFull() {
+        PriceCache cache = new PriceCache(new StubPriceSource(0), 2, Duration.ofMinutes(5), Duration.ofMinutes(4),
+                Runnable::run, clock);
+        cache.loadPriceInCents(Fruit.APPLE);
+        clock.advance(Duration.ofSeconds(1));
+        cache.loadPriceInCents(Fruit.BANANA);
+        clock.advance(Duration.ofSeconds(1));
+        // reading APPLE again makes BANANA the least recently read
+        cache.loadPriceInCents(Fruit.APPLE);
+        cache.loadPriceInCents(Fruit.PEAR);
+
+        assertThat(cache.size()).isEqualTo(2);
+        long loads = cache.getLoadCount();
+        cache.loadPriceInCents(Fruit.APPLE);
+        assertThat(cache.getLoadCount()).isEqualTo(loads);
+        cache.loadPriceInCents(Fruit.BANANA);
+        assertThat(cache.getLoadCount()).isEqualTo(loads + 1);
+    }
+
+    @Test
+    public void shouldPassOnWhenTheSourceHasNoPrice() {
+        PriceCache cache = new PriceCache(pricingService);
+        assertThrows(FruitUnavailableException.class, () -> cache.loadPriceInCents(Fruit.MANGO));
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void aCatalogBackedByTheCacheShouldPriceCartsWithWhatTheSourceSays() {
+        StubPriceSource source = new StubPriceSource(0);
+        PriceCache cache = new PriceCache(source, 6, Duration.ofMinutes(5), Duration.ofMinutes(10),
+                Runnable::run, clock);
+        Catalog catalog = Catalog.backedBy(cache);
+
+        // nothing has been loaded yet, but every lookup reads through to the source
+        assertThat(catalog.containsFruit(Fruit.APPLE)).isTrue();
+        assertThat(catalog.containsFruit(Fruit.MANGO)).isFalse();
+        ShoppingCart cart = new ShoppingCart();
+        assertThat(cart.tryAddItem(Fruit.APPLE, 1, catalog)).isEqualTo(OperationStatus.OK);
+        assertThat(cart.tryAddItem(Fruit.MANGO, 1, catalog)).isEqualTo(OperationStatus.FRUIT_UNAVAILABLE);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(4.00);
+
+        // once the cached price expires, the cart is priced with the source's new price
+        source.setPrice(Fruit.APPLE, 999);
+        clock.advance(Duration.ofMinutes(5));
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(9.99);
+        assertThat(catalog.getPriceOrDefault(Fruit.APPLE, 0)).isEqualTo(9.99);
+    }
+
+    @Test
+    public void aSlowReadThroughShouldNotOverwriteANewerPrice() {
+        Catalog[] backed = new Catalog[1];
+        // while this lookup is on its way back with the old price, another thread publishes a newer one
+        backed[0] = Catalog.backedBy(fruit -> {
+            backed[0].updatePriceInCentsOf(fruit, 999);
+            return 400;
+        });
+
+        backed[0].containsFruit(Fruit.APPLE);
+
+        assertThat(backed[0].snapshot().getPriceInCentsOf(Fruit.APPLE)).isEqualTo(999);
+    }
+
+    @Test
+    public void loadingEveryPriceShouldPublishThemAsOneVersion() {
+        Catalog catalog = Catalog.backedBy(new PriceCache(new StubPriceSource(0)));
+        long version = catalog.getPriceVersion();
+
+        catalog.loadPrices();
+
+        assertThat(catalog.getPriceVersion()).isEqualTo(version + 1);
+        assertThat(catalog.snapshot().containsFruit(Fruit.PEAR)).isTrue();
+        assertThat(catalog.snapshot().containsFruit(Fruit.MANGO)).isFalse();
+    }
+
+    // stands in for the pricing service - sells everything except mangoes and takes a while to answer
+    private static class StubPriceSource implements PriceSource {
+        private final long latencyMillis;
+        private final AtomicLongArray prices = new AtomicLongArray(Fruit.values().length);
+        final AtomicInteger calls = new AtomicInteger();
+        private volatile CountDownLatch started;
+        private volatile CountDownLatch finish;
+
+        StubPriceSource(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            setPrice(Fruit.APPLE, 400);
+            setPrice(Fruit.BANANA, 600);
+            setPrice(Fruit.ORANGE, 550);
+            setPrice(Fruit.PEACH, 300);
+            setPrice(Fruit.PEAR, 450);
+        }
+
+        void setPrice(Fruit fruit, long priceInCents) {
+            prices.set(fruit.ordinal(), priceInCents);
+        }
+
+        // make the next loads wait until finish is counted down, counting down started when they begin
+        void blockUntil(CountDownLatch started, CountDownLatch finish) {
+            this.started = started;
+            this.finish = finish;
+        }
+
+        @Override
+        public long loadPriceInCents(Fruit fruit) {
+            calls.incrementAndGet();
+            if (finish != null) {
+                started.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (prices.get(fruit.ordinal()) == 0) {
+                throw new FruitUnavailableException(fruit.name() + " is not available in the catalog.");
+            }
+            return prices.get(fruit.ordinal());
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant now = Instant.parse("2026-06-01T09:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
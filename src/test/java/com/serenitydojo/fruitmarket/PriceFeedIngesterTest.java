@@ -0,0 +1,134 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriceFeedIngesterTest {
+    Catalog catalog = Catalog.withDefaultItems();
+
+    @Test
+    public void shouldApplyTheLatestPriceOfEachFruitInTheFeed() throws IOException {
+        String feed = "# supplier feed\n"
+                + "APPLE,4.25\n"
+                + "pear, $3.9\r\n"
+                + "\n"
+                + "APPLE,4.75\n"
+                + "PEACH,3";
+        IngestionReport report = new PriceFeedIngester(catalog).ingest(channelOf(feed));
+
+        assertThat(catalog.getPriceInCentsOf(Fruit.APPLE)).isEqualTo(475);
+        assertThat(catalog.getPriceInCentsOf(Fruit.PEAR)).isEqualTo(390);
+        assertThat(catalog.getPriceInCentsOf(Fruit.PEACH)).isEqualTo(300);
+        assertThat(report.getLines()).isEqualTo(4);
+        assertThat(report.getMalformedLines()).isZero();
+        // the two apple prices were combined into one update
+        assertThat(report.getPricesApplied()).isEqualTo(3);
+        assertThat(report.getBatches()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountMalformedLinesAndCarryOn() throws IOException {
+        String feed = "fruit,price\n"
+                + "KIWI,2.00\n"
+                + "APPLE,four\n"
+                + "APPLE,4.255\n"
+                + "APPLE\n"
+                + "APPLE,-1\n"
+                + "APPLE," + repeat('9', 200) + "\n"
+                + "BANANA,6.10\n";
+        IngestionReport report = new PriceFeedIngester(catalog).ingest(channelOf(feed));
+
+        assertThat(report.getMalformedLines()).isEqualTo(7);
+        assertThat(report.getLines()).isEqualTo(8);
+        assertThat(catalog.getPriceInCentsOf(Fruit.APPLE)).isEqualTo(400);
+        assertThat(catalog.getPriceInCentsOf(Fruit.BANANA)).isEqualTo(610);
+    }
+
+    @Test
+    public void shouldReadLinesThatAreSplitAcrossBuffers() throws IOException {
+        // a 5 byte buffer splits almost every line
+        String feed = "ORANGE,5.75\nMANGO,8.20\nORANGE,5.80\n";
+        IngestionReport report = new PriceFeedIngester(catalog, 1, 5).ingest(channelOf(feed));
+
+        assertThat(catalog.getPriceInCentsOf(Fruit.ORANGE)).isEqualTo(580);
+        assertThat(catalog.getPriceInCentsOf(Fruit.MANGO)).isEqualTo(820);
+        // a batch size of one applies every line on its own
+        assertThat(report.getBatches()).isEqualTo(3);
+        assertThat(report.getBytes()).isEqualTo(feed.length());
+    }
+
+    @Test
+    public void shouldStreamAVeryLargeFeedInBoundedBatches() throws IOException {
+        // a feed of a million lines, generated as it is read so it is never held in memory
+        int lines = 1_000_000;
+        IngestionReport report = new PriceFeedIngester(catalog, 10_000, 8 * 1024).ingest(new GeneratedFeed(lines));
+
+        assertThat(report.getLines()).isEqualTo(lines);
+        assertThat(report.getMalformedLines()).isZero();
+        assertThat(report.getBatches()).isEqualTo(lines / 10_000);
+        assertThat(report.getLinesPerSecond()).isPositive();
+        // the last pear line was line 999,995, which priced pears at 995 cents
+        assertThat(catalog.getPriceInCentsOf(Fruit.PEAR)).isEqualTo(995);
+    }
+
+    private static ReadableByteChannel channelOf(String feed) {
+        return Channels.newChannel(new ByteArrayInputStream(feed.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    // a channel that makes up lines such as "PEAR,9.99" on the fly
+    private static class GeneratedFeed implements ReadableByteChannel {
+        private final int lines;
+        private int line;
+        private byte[] current = new byte[0];
+        private int offset;
+
+        GeneratedFeed(int lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (offset == current.length) {
+                if (line == lines) {
+                    return -1;
+                }
+                Fruit fruit = Fruit.values()[line % Fruit.values().length];
+                current = (fruit + "," + (line % 1000) / 100 + "." + String.format("%02d", line % 100) + "\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                offset = 0;
+                line++;
+            }
+            int count = Math.min(target.remaining(), current.length - offset);
+            target.put(current, offset, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+public class PricingRulesTest {
+    // default catalog prices: APPLE $4.00, BANANA $6.00, ORANGE $5.50, PEAR $4.50
+    Catalog catalog = Catalog.withDefaultItems();
+
+    Instant now = Instant.parse("2026-06-01T12:00:00Z");
+    Clock clock = Clock.fixed(now, ZoneOffset.UTC);
+
+    @Test
+    public void shouldPriceWithTheStandardRulesByDefault() {
+        ShoppingCart cart = new ShoppingCart(PricingPipeline.STANDARD);
+        cart.addItem(Fruit.APPLE, 5, catalog);
+        // 5 kg at $4.00 with 10% off
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(1800);
+    }
+
+    @Test
+    public void shouldApplyATierDiscountToOneFruitOnly() {
+        ShoppingCart cart = new ShoppingCart(PricingPipeline.compile(PricingRule.tierDiscount(Fruit.PEAR, 3, 20)));
+        cart.addItem(Fruit.PEAR, 3, catalog);
+        cart.addItem(Fruit.APPLE, 3, catalog);
+        // pears: 3 x $4.50 = $13.50 less 20% = $10.80; apples full price at $12.00
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(2280);
+    }
+
+    @Test
+    public void shouldApplyAMultiBuy() {
+        ShoppingCart cart = new ShoppingCart(PricingPipeline.compile(PricingRule.multiBuy(Fruit.BANANA, 3, 2)));
+        cart.addItem(Fruit.BANANA, 7, catalog);
+        // 3 for 2 twice, plus one more: pay for 5 kg at $6.00
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(3000);
+    }
+
+    @Test
+    public void shouldUseTheCheapestLineRuleAndThenTheBulkDiscount() {
+        ShoppingCart cart = new ShoppingCart(PricingPipeline.compile(
+                PricingRule.tierDiscount(Fruit.BANANA, 2, 10),
+                PricingRule.multiBuy(Fruit.BANANA, 2, 1),
+                PricingRule.bulkDiscount(5, 10),
+                PricingRule.bulkDiscount(10, 25)));
+        cart.addItem(Fruit.BANANA, 4, catalog);
+        cart.addItem(Fruit.ORANGE, 2, catalog);
+        // bananas: 2 for 1 beats 10% off, so pay for 2 kg = $12.00; oranges $11.00
+        // 6 kg in total qualifies for 10% off but not 25%: $23.00 less 10% = $20.70
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(2070);
+    }
+
+    @Test
+    public void shouldOnlyApplyPromotionsDuringTheirTimeWindow() {
+        PricingRule flashSale = PricingRule.tierDiscount(Fruit.APPLE, 1, 50);
+        ShoppingCart duringSale = new ShoppingCart(PricingPipeline.compile(Collections.singletonList(
+                flashSale.between(now.minusSeconds(60), now.plusSeconds(60))), clock));
+        ShoppingCart afterSale = new ShoppingCart(PricingPipeline.compile(Collections.singletonList(
+                flashSale.between(now.minusSeconds(120), now.minusSeconds(60))), clock));
+        ShoppingCart beforeSale = new ShoppingCart(PricingPipeline.compile(Arrays.asList(
+                flashSale.between(now.plusSeconds(60), now.plusSeconds(120)),
+                PricingRule.bulkDiscount(1, 5).between(now, now.plusSeconds(1))), clock));
+        for (ShoppingCart cart : Arrays.asList(duringSale, afterSale, beforeSale)) {
+            cart.addItem(Fruit.APPLE, 2, catalog);
+        }
+        assertThat(duringSale.getTotalPriceInCents(catalog)).isEqualTo(400);
+        assertThat(afterSale.getTotalPriceInCents(catalog)).isEqualTo(800);
+        // the window start is inclusive, so only the bulk discount applies
+        assertThat(beforeSale.getTotalPriceInCents(catalog)).isEqualTo(760);
+    }
+
+    @Test
+    public void shouldRejectRulesThatMakeNoSense() {
+        assertThrows(IllegalArgumentException.class, () -> PricingRule.bulkDiscount(5, 110));
+        assertThrows(IllegalArgumentException.class, () -> PricingRule.multiBuy(Fruit.PEAR, 2, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> PricingRule.bulkDiscount(5, 10).between(now, now.minusSeconds(1)));
+    }
+}
@@ -0,0 +1,139 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShopJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRebuildOpenCartsAndPricesAfterARestart() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("shop.journal");
+        try (ShopJournal journal = ShopJournal.open(file)) {
+            journal.recordPriceUpdate(Fruit.APPLE, 450);
+            journal.recordAddItem(1, Fruit.APPLE, 3);
+            journal.recordAddItem(2, Fruit.PEAR, 2);
+            journal.recordRemoveItem(1, Fruit.APPLE, 1);
+            journal.recordAddItem(3, Fruit.BANANA, 1);
+            journal.recordRemoveItem(3, Fruit.BANANA, 1);
+        }
+
+        Catalog catalog = Catalog.withDefaultItems();
+        Map<Long, ShoppingCart> carts = ShopJournal.replay(file, catalog);
+
+        // cart 3 was emptied, so only carts 1 and 2 come back
+        assertThat(carts).containsOnlyKeys(1L, 2L);
+        assertThat(carts.get(1L).getCartItems()).containsExactly("APPLE: 2 kg");
+        assertThat(carts.get(2L).getCartItems()).containsExactly("PEAR: 2 kg");
+        // the price update was applied to the catalog, and the restored cart prices with it
+        assertThat(catalog.getPriceOf(Fruit.APPLE)).isEqualTo(4.50);
+        assertThat(carts.get(1L).getTotalPrice(catalog)).isEqualTo(9.00);
+    }
+
+    @Test
+    public void shouldMakeChangesDurableInBatchesAcrossThreads() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("shop.journal");
+        int threads = 8;
+        int changesPerThread = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ShopJournal journal = ShopJournal.open(file, 1)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long cartId = t;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < changesPerThread; i++) {
+                        long sequence = journal.recordAddItem(cartId, Fruit.BANANA, 1);
+                        // wait on every 100th change, as a checkout would
+                        if (i % 100 == 0) {
+                            journal.awaitDurable(sequence);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Map<Long, ShoppingCart> carts = ShopJournal.replay(file, Catalog.withDefaultItems());
+        assertThat(carts).hasSize(threads);
+        for (ShoppingCart cart : carts.values()) {
+            assertThat(cart.getItemQuantity(Fruit.BANANA)).isEqualTo(changesPerThread);
+        }
+    }
+
+    @Test
+    public void shouldIgnoreARecordThatWasOnlyHalfWrittenWhenTheProcessCrashed() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("shop.journal");
+        try (ShopJournal journal = ShopJournal.open(file)) {
+            journal.recordAddItem(1, Fruit.APPLE, 2);
+            journal.recordAddItem(1, Fruit.PEAR, 1);
+        }
+        // chop the last record in half
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        assertThat(ShopJournal.replay(file, new Catalog()).get(1L).getCartItems()).containsExactly("APPLE: 2 kg");
+
+        // reopening the journal cuts off the broken record, so new records follow straight on from the good ones
+        try (ShopJournal journal = ShopJournal.open(file)) {
+            journal.recordAddItem(1, Fruit.ORANGE, 4);
+        }
+        assertThat(ShopJournal.replay(file, new Catalog()).get(1L).getCartItems())
+                .containsExactly("APPLE: 2 kg", "ORANGE: 4 kg");
+    }
+
+    @Test
+    public void shouldCompactTheJournalDownToTheCurrentState() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("shop.journal");
+        Catalog catalog = Catalog.withDefaultItems();
+        ShoppingCart cart = new ShoppingCart();
+        try (ShopJournal journal = ShopJournal.open(file)) {
+            // lots of churn on one cart
+            for (int i = 0; i < 1_000; i++) {
+                cart.addItem(Fruit.APPLE, 2, catalog);
+                journal.recordAddItem(7, Fruit.APPLE, 2);
+                cart.removeItem(Fruit.APPLE, 1);
+                journal.recordRemoveItem(7, Fruit.APPLE, 1);
+            }
+            journal.awaitDurable(Long.MAX_VALUE);
+            long sizeBefore = Files.size(file);
+
+            Map<Long, ShoppingCart> carts = new HashMap<>();
+            carts.put(7L, cart);
+            journal.compact(carts, catalog);
+            assertThat(Files.size(file)).isLessThan(sizeBefore);
+
+            // changes recorded after compaction go on the end of the compacted journal
+            journal.recordAddItem(7, Fruit.PEAR, 1);
+        }
+
+        Catalog restoredCatalog = new Catalog();
+        Map<Long, ShoppingCart> restored = ShopJournal.replay(file, restoredCatalog);
+        assertThat(restored.get(7L).getCartItems()).containsExactly("APPLE: 1000 kg", "PEAR: 1 kg");
+        assertThat(restoredCatalog.getPriceOf(Fruit.ORANGE)).isEqualTo(5.50);
+    }
+}
@@ -0,0 +1,109 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.Assert.assertThrows;
+
+public class ShopMetricsTest {
+    ShoppingCart cart = new ShoppingCart();
+    Catalog catalog = Catalog.withDefaultItems();
+
+    @Before
+    public void startRecording() {
+        ShopMetrics.enable();
+        ShopMetrics.reset();
+    }
+
+    @After
+    public void stopRecording() {
+        ShopMetrics.disable();
+        ShopMetrics.reset();
+    }
+
+    @Test
+    public void shouldCountOperationsAndFailuresByExceptionType() throws Exception {
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        cart.addItem(Fruit.PEAR, 1, catalog);
+        assertThrows(FruitUnavailableException.class, () -> cart.addItem(Fruit.MANGO, 1, catalog));
+        cart.removeItem(Fruit.APPLE, 1);
+        assertThrows(ItemNotFoundException.class, () -> cart.removeItem(Fruit.BANANA, 1));
+        assertThrows(InsufficientQuantityException.class, () -> cart.removeItem(Fruit.PEAR, 3));
+        cart.getTotalPrice(catalog);
+        catalog.getPriceOf(Fruit.APPLE);
+        assertThrows(FruitUnavailableException.class, () -> catalog.getPriceOf(Fruit.PEACH));
+        catalog.getAvailableFruits();
+
+        MetricsSnapshot metrics = ShopMetrics.snapshot();
+        MetricsSnapshot.OperationSnapshot addItem = metrics.getOperation(ShopMetrics.Operation.ADD_ITEM);
+        assertThat(addItem.getCount()).isEqualTo(3);
+        assertThat(addItem.getFailures()).containsOnly(entry("FruitUnavailableException", 1L));
+        MetricsSnapshot.OperationSnapshot removeItem = metrics.getOperation(ShopMetrics.Operation.REMOVE_ITEM);
+        assertThat(removeItem.getCount()).isEqualTo(3);
+        assertThat(removeItem.getFailures()).containsOnly(
+                entry("ItemNotFoundException", 1L), entry("InsufficientQuantityException", 1L));
+        assertThat(metrics.getOperation(ShopMetrics.Operation.GET_TOTAL_PRICE).getCount()).isEqualTo(1);
+        assertThat(metrics.getOperation(ShopMetrics.Operation.GET_PRICE).getCount()).isEqualTo(2);
+        assertThat(metrics.getOperation(ShopMetrics.Operation.GET_PRICE).getFailureCount()).isEqualTo(1);
+        assertThat(metrics.getOperation(ShopMetrics.Operation.GET_AVAILABLE_FRUITS).getCount()).isEqualTo(1);
+        assertThat(metrics.toString()).contains("ADD_ITEM count=3");
+    }
+
+    @Test
+    public void shouldRecordLatencyPercentiles() {
+        for (int i = 0; i < 10_000; i++) {
+            catalog.getPriceOf(Fruit.APPLE);
+        }
+        MetricsSnapshot.OperationSnapshot getPrice = ShopMetrics.snapshot().getOperation(ShopMetrics.Operation.GET_PRICE);
+        assertThat(getPrice.getCount()).isEqualTo(10_000);
+        assertThat(getPrice.getMeanNanos()).isPositive();
+        assertThat(getPrice.getPercentileNanos(50)).isLessThanOrEqualTo(getPrice.getPercentileNanos(99));
+        assertThat(getPrice.getPercentileNanos(99)).isLessThanOrEqualTo(getPrice.getMaxNanos());
+    }
+
+    @Test
+    public void shouldNotLoseCountsWhenManyThreadsRecordAtOnce() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tasks.add(executor.submit(() -> {
+                    ShoppingCart cart = new ShoppingCart();
+                    for (int i = 0; i < 10_000; i++) {
+                        cart.addItem(Fruit.BANANA, 1, catalog);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(ShopMetrics.snapshot().getOperation(ShopMetrics.Operation.ADD_ITEM).getCount())
+                .isEqualTo(threads * 10_000);
+    }
+
+    @Test
+    public void shouldRecordNothingWhileDisabled() {
+        ShopMetrics.disable();
+        catalog.getPriceOf(Fruit.APPLE);
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        assertThat(ShopMetrics.snapshot().getOperation(ShopMetrics.Operation.GET_PRICE).getCount()).isZero();
+        assertThat(ShopMetrics.snapshot().getOperation(ShopMetrics.Operation.ADD_ITEM).getCount()).isZero();
+    }
+}
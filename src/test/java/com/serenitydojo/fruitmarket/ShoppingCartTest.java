@@ -5,10 +5,13 @@ import com.serenitydojo.*;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assume.assumeTrue;
 
 public class ShoppingCartTest {
     // create a shopping cart and default catalog to use in our test cases
@@ -183,4 +186,153 @@ public class ShoppingCartTest {
         assertThat(totalPrice).isEqualTo(catalog.getPriceOf(Fruit.ORANGE) * 2 + catalog.getPriceOf(Fruit.PEAR));
     }
 
+    @Test
+    public void shouldKeepTheRunningTotalUpToDateAsItemsAreAddedAndRemoved() throws Exception {
+        // price the cart once, then keep changing it
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(8.00);
+        cart.addItem(Fruit.PEAR, 2, catalog);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(17.00);
+        cart.removeItem(Fruit.APPLE, 1);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(13.00);
+        // going over 5kg should still bring in the discount
+        cart.addItem(Fruit.BANANA, 2, catalog);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(25.00 * 0.9);
+    }
+
+    @Test
+    public void shouldRepriceTheCartWhenTheCatalogPricesChange() throws Exception {
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(8.00);
+        // a price change after the cart was priced should be picked up on the next total
+        catalog.updatePriceOf(Fruit.APPLE, 5.00);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(10.00);
+        // a price change between two cart changes should also be picked up
+        catalog.updatePriceOf(Fruit.APPLE, 3.00);
+        cart.removeItem(Fruit.APPLE, 1);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(3.00);
+        // pricing against a different catalog should use that catalog's prices
+        Catalog otherCatalog = Catalog.withDefaultItems();
+        assertThat(cart.getTotalPrice(otherCatalog)).isEqualTo(4.00);
+    }
+
+    @Test
+    public void shouldAddUpPricesExactlyToTheCent() {
+        // 10 cents three times over is 30 cents, not the 0.30000000000000004 that adding doubles gives
+        catalog.updatePriceOf(Fruit.APPLE, 0.10);
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(30);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(0.30);
+    }
+
+    @Test
+    public void shouldRoundTheDiscountToTheNearestCent() {
+        // 5 kg at $1.05 is $5.25, and 10% off leaves $4.725, which rounds half up to $4.73
+        catalog.updatePriceOf(Fruit.PEAR, 1.05);
+        cart.addItem(Fruit.PEAR, 5, catalog);
+        assertThat(cart.getTotalPriceInCents(catalog)).isEqualTo(473);
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(4.73);
+        assertThat(Money.format(cart.getTotalPriceInCents(catalog))).isEqualTo("$4.73");
+    }
+
+    @Test
+    public void shouldReportStatusCodesInsteadOfThrowing() {
+        // the try methods report the same failures as the exceptions, without throwing
+        assertThat(cart.tryAddItem(Fruit.PEACH, 1, catalog)).isEqualTo(OperationStatus.FRUIT_UNAVAILABLE);
+        assertThat(cart.tryRemoveItem(Fruit.APPLE, 1)).isEqualTo(OperationStatus.ITEM_NOT_FOUND);
+        assertThat(cart.tryAddItem(Fruit.APPLE, 2, catalog)).isEqualTo(OperationStatus.OK);
+        assertThat(cart.tryRemoveItem(Fruit.APPLE, 3)).isEqualTo(OperationStatus.INSUFFICIENT_QUANTITY);
+        assertThat(cart.tryRemoveItem(Fruit.APPLE, 1)).isEqualTo(OperationStatus.OK);
+        // only the successful calls should have changed the cart
+        assertThat(cart.getCartItems()).containsExactly("APPLE: 1 kg");
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(4.00);
+    }
+
+    @Test
+    public void shouldApplyABatchOfAddsAndRemovesInOneGo() {
+        cart.addItem(Fruit.PEAR, 1, catalog);
+        // a later line can remove fruit that an earlier line in the same batch added
+        BatchResult result = cart.applyBatch(Arrays.asList(
+                CartOperation.add(Fruit.APPLE, 3),
+                CartOperation.add(Fruit.BANANA, 2),
+                CartOperation.remove(Fruit.APPLE, 1),
+                CartOperation.remove(Fruit.PEAR, 1)), catalog);
+        assertThat(result.isApplied()).isTrue();
+        assertThat(result.getFailureCount()).isZero();
+        assertThat(cart.getCartItems()).containsExactlyInAnyOrder("APPLE: 2 kg", "BANANA: 2 kg");
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(20.00);
+    }
+
+    @Test
+    public void shouldNotApplyAnyOfABatchWhenOneLineFails() {
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        double totalBefore = cart.getTotalPrice(catalog);
+        BatchResult result = cart.applyBatch(Arrays.asList(
+                CartOperation.add(Fruit.ORANGE, 4),
+                CartOperation.add(Fruit.PEACH, 1),
+                CartOperation.remove(Fruit.PEAR, 1),
+                CartOperation.remove(Fruit.APPLE, 3)), catalog);
+        // each line should report what was wrong with it
+        assertThat(result.isApplied()).isFalse();
+        assertThat(result.getLineStatuses()).containsExactly(
+                OperationStatus.OK,
+                OperationStatus.FRUIT_UNAVAILABLE,
+                OperationStatus.ITEM_NOT_FOUND,
+                OperationStatus.INSUFFICIENT_QUANTITY);
+        assertThat(result.getFailureCount()).isEqualTo(3);
+        // and the cart should be exactly as it was
+        assertThat(cart.getCartItems()).containsExactly("APPLE: 2 kg");
+        assertThat(cart.getTotalPrice(catalog)).isEqualTo(totalBefore);
+    }
+
+    @Test
+    public void shouldRejectBatchLinesWithoutAPositiveQuantity() {
+        cart.addItem(Fruit.APPLE, 1, catalog);
+        // a negative removal would otherwise grow the line, and a negative add would make a negative line
+        BatchResult result = cart.applyBatch(Arrays.asList(
+                CartOperation.remove(Fruit.APPLE, -5),
+                CartOperation.add(Fruit.PEAR, -2),
+                CartOperation.add(Fruit.BANANA, 0)), catalog);
+        assertThat(result.isApplied()).isFalse();
+        assertThat(result.getLineStatuses()).containsOnly(OperationStatus.INVALID_QUANTITY);
+        assertThat(cart.getCartItems()).containsExactly("APPLE: 1 kg");
+    }
+
+    @Test
+    public void shouldNotAllocateWhenAddingItemsAndPricingTheCart() throws Exception {
+        // the JDK's ThreadMXBean can tell us how many bytes the current thread has allocated
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        // warm up so that we measure the steady state
+        double total = 0;
+        for (int i = 0; i < 20_000; i++) {
+            total += addAndPrice();
+        }
+        // measure the cost of the measurement itself so it can be taken off
+        long overhead = -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            total += addAndPrice();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertThat(total).isPositive();
+        // zero bytes per operation - allow a little slack for the measurement calls
+        assertThat(allocated).isLessThan(1024);
+    }
+
+    private double addAndPrice() throws Exception {
+        cart.addItem(Fruit.APPLE, 2, catalog);
+        cart.addItem(Fruit.PEAR, 3, catalog);
+        double total = cart.getTotalPrice(catalog);
+        cart.removeItem(Fruit.APPLE, 2);
+        cart.removeItem(Fruit.PEAR, 3);
+        return total;
+    }
 }
@@ -0,0 +1,162 @@
+package com.serenitydojo.fruitmarket;
+
+import com.serenitydojo.*;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+public class StockReservationsTest {
+    // default catalog contains 5 kg each of APPLE, BANANA, ORANGE, PEAR
+    Catalog catalog = Catalog.withDefaultItems();
+    StockReservations reservations = new StockReservations(catalog);
+
+    @Test
+    public void shouldReserveStockWhenAddingToTheCart() {
+        ShoppingCart cart = new ShoppingCart();
+        assertThat(reservations.addToCart(cart, Fruit.APPLE, 3, catalog)).isEqualTo(OperationStatus.OK);
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(2);
+        // asking for more than is left should fail without reserving or adding anything
+        assertThat(reservations.addToCart(cart, Fruit.APPLE, 3, catalog)).isEqualTo(OperationStatus.OUT_OF_STOCK);
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(2);
+        assertThat(cart.getItemQuantity(Fruit.APPLE)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReleaseStockWhenRemovingFromTheCartOrWhenTheCartExpires() {
+        ShoppingCart cart = new ShoppingCart();
+        reservations.addToCart(cart, Fruit.APPLE, 3, catalog);
+        reservations.addToCart(cart, Fruit.PEAR, 5, catalog);
+        assertThat(reservations.removeFromCart(cart, Fruit.APPLE, 1)).isEqualTo(OperationStatus.OK);
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(3);
+        // a failed removal should not give anything back
+        assertThat(reservations.removeFromCart(cart, Fruit.APPLE, 5)).isEqualTo(OperationStatus.INSUFFICIENT_QUANTITY);
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(3);
+        // expiring the cart gives everything back and empties it
+        reservations.releaseCart(cart);
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(5);
+        assertThat(reservations.getAvailable(Fruit.PEAR)).isEqualTo(5);
+        assertThat(cart.getCartItems()).isEmpty();
+    }
+
+    @Test
+    public void shouldNotReserveFruitThatIsNotInTheCatalog() {
+        ShoppingCart cart = new ShoppingCart();
+        // mangoes have no price and no stock
+        assertThat(reservations.addToCart(cart, Fruit.MANGO, 1, catalog)).isEqualTo(OperationStatus.OUT_OF_STOCK);
+        // stock with no price should be given back when the cart turns the fruit down
+        catalog.addStock(Fruit.PEACH, 4);
+        StockReservations withPeaches = new StockReservations(catalog);
+        assertThat(withPeaches.addToCart(cart, Fruit.PEACH, 1, catalog)).isEqualTo(OperationStatus.FRUIT_UNAVAILABLE);
+        assertThat(withPeaches.getAvailable(Fruit.PEACH)).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldRejectQuantitiesThatAreNotPositive() {
+        ShoppingCart cart = new ShoppingCart();
+        // a negative reservation would otherwise create stock out of nothing
+        assertThrows(IllegalArgumentException.class, () -> reservations.reserve(Fruit.APPLE, -100));
+        assertThrows(IllegalArgumentException.class, () -> reservations.release(Fruit.APPLE, 0));
+        assertThrows(IllegalArgumentException.class, () -> reservations.addToCart(cart, Fruit.APPLE, -1, catalog));
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldOnlyGiveBackWhatTheCartReserved() {
+        ShoppingCart cart = new ShoppingCart();
+        // these pears were never reserved, so emptying the cart must not add them to the free stock
+        cart.addItem(Fruit.PEAR, 3, catalog);
+        reservations.addToCart(cart, Fruit.PEAR, 1, catalog);
+        assertThat(reservations.getAvailable(Fruit.PEAR)).isEqualTo(4);
+        reservations.releaseCart(cart);
+        assertThat(reservations.getAvailable(Fruit.PEAR)).isEqualTo(5);
+        assertThat(cart.getCartItems()).isEmpty();
+    }
+
+    @Test
+    public void shouldMakeNewDeliveriesFreeToReserve() {
+        reservations.addStock(Fruit.MANGO, 2, catalog);
+        assertThat(catalog.getStockOf(Fruit.MANGO)).isEqualTo(2);
+        assertThat(reservations.reserve(Fruit.MANGO, 2)).isTrue();
+    }
+
+    @Test
+    public void shouldKeepReservationsWhenAStoredCartIsPackedAndUnpacked() throws Exception {
+        CartStore store = new CartStore(16, Duration.ZERO, Clock.systemUTC());
+        store.withCart(1, cart -> reservations.addToCart(cart, Fruit.APPLE, 3, catalog));
+        // let the cart go idle for a moment
+        Thread.sleep(5);
+        assertThat(store.compactIdle(Duration.ZERO)).isEqualTo(1);
+
+        // the evicted cart is a new object unpacked from the slab, but it still knows what it reserved
+        store.evictIdle((id, cart) -> reservations.releaseCart(cart));
+
+        assertThat(reservations.getAvailable(Fruit.APPLE)).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldTakeReservedFruitOutOfTheCatalogAtCheckout() {
+        ShoppingCart cart = new ShoppingCart();
+        reservations.addToCart(cart, Fruit.BANANA, 4, catalog);
+        cart.tryRemoveItem(Fruit.BANANA, 1);
+
+        reservations.commit(cart, catalog);
+
+        // 3 kg were sold and the extra kilo reserved is free again
+        assertThat(catalog.getStockOf(Fruit.BANANA)).isEqualTo(2);
+        assertThat(reservations.getAvailable(Fruit.BANANA)).isEqualTo(2);
+        // the reservation is used up, so releasing the cart afterwards gives nothing back
+        reservations.releaseCart(cart);
+        assertThat(reservations.getAvailable(Fruit.BANANA)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNeverOversellUnderHeavyContention() throws Exception {
+        // lots of carts fighting over a big but limited stock of bananas
+        Catalog catalog = Catalog.withDefaultItems();
+        catalog.addStock(Fruit.BANANA, 99_995);
+        StockReservations reservations = new StockReservations(catalog);
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ShoppingCart>> carts = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                carts.add(executor.submit(() -> {
+                    ShoppingCart cart = new ShoppingCart();
+                    start.await();
+                    // keep buying until the stock runs out, putting a kilo back now and then
+                    int added = 0;
+                    while (reservations.addToCart(cart, Fruit.BANANA, 2, catalog) == OperationStatus.OK) {
+                        if (++added % 10 == 0) {
+                            reservations.removeFromCart(cart, Fruit.BANANA, 1);
+                        }
+                    }
+                    return cart;
+                }));
+            }
+            start.countDown();
+            long sold = 0;
+            for (Future<ShoppingCart> cart : carts) {
+                sold += cart.get(60, TimeUnit.SECONDS).getItemQuantity(Fruit.BANANA);
+            }
+            // every kilo in the carts was reserved exactly once, and nothing is left over that could be sold twice
+            long remaining = reservations.getAvailable(Fruit.BANANA);
+            assertThat(remaining).isBetween(0L, 1L);
+            assertThat(sold + remaining).isEqualTo(100_000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}